@@ -0,0 +1,152 @@
+// An engine for best response dynamics (update method 7) that only ever updates sites that can change.
+//
+// A site is active when updating it could change its strategy: its strategy isn't a best response to its
+// neighbors, or there is more than one best response to choose from. Every other site is left alone by
+// method 7, so random-sequential updating wastes the steps that land on them. This engine keeps the active
+// sites in a set, skips over the wasted steps by drawing their number from a geometric distribution (so the
+// time still advances exactly as if they had been taken), and updates an active site chosen uniformly.
+// When the set is empty, the lattice is frozen and step() returns false.
+public class BestResponseEngine implements SimulationEngine {
+    private Lattice lattice;
+    private double time;
+    private int payoffVersion;
+
+    // The active sites, in no particular order, and the position of each site in (activeSites), or -1.
+    private int[] activeSites;
+    private int[] positions;
+    private int numActive;
+
+    public BestResponseEngine(Lattice lattice) {
+	if (!supports(lattice.getUpdateMethod())) {
+	    System.err.println("The best response engine only runs update method 7. EXITING.");
+	    System.exit(1);
+	}
+	this.lattice = lattice;
+	activeSites = new int[lattice.getNumSites()];
+	positions = new int[lattice.getNumSites()];
+	initializeActiveSites();
+    }
+
+    public static boolean supports(int updateMethod) {
+	return updateMethod == 7;
+    }
+
+    @Override
+    public boolean step() {
+	if (payoffVersion != lattice.getPayoffVersion())
+	    initializeActiveSites();
+	if (numActive == 0)
+	    return false;
+
+	int numSites = lattice.getNumSites();
+	int node;
+	if (2*numActive > numSites) {
+	    // While most sites are active, there is little to skip, and a plain random-sequential step is cheaper.
+	    time += 1.0 / (lattice.getMaxRate()*numSites);
+	    node = lattice.rand.nextInt(numSites);
+	    if (positions[node] < 0)
+		return true;
+	}
+	else {
+	    // Each random-sequential step lands on an active site with probability p; the number of steps up
+	    // to and including the first that does is geometric.
+	    double p = (double) numActive / (double) numSites;
+	    long steps = 1 + (long) Math.floor(Math.log(1.0 - lattice.rand.nextDouble()) / Math.log(1.0 - p));
+	    time += (double) steps / (lattice.getMaxRate()*numSites);
+	    node = activeSites[lattice.rand.nextInt(numActive)];
+	}
+
+	int oldStrategy = lattice.getStrategyAt(node);
+	lattice.updateNode(node);
+	if (lattice.getStrategyAt(node) != oldStrategy) {
+	    updateActivity(node);
+	    for (int k=0; k<lattice.getDegree(); k++) {
+		updateActivity(lattice.getNeighborOf(node, k));
+	    }
+	}
+	return true;
+    }
+
+    public boolean isFrozen() {
+	return numActive == 0;
+    }
+
+    public int getNumActive() {
+	return numActive;
+    }
+
+    // Returns true if updating (site) with best response dynamics could change its strategy.
+    public boolean isActive(int site) {
+	int strategy = lattice.getStrategyAt(site);
+	double bestPayoff = Double.NEGATIVE_INFINITY;
+	int tiedStrategyCount = 0;
+	boolean currentIsBest = false;
+	for (int i=0; i<lattice.getNumStrategies(); i++) {
+	    double thisPayoff = lattice.getPayoffGivenStrategy(site, i);
+	    if (thisPayoff > bestPayoff) {
+		bestPayoff = thisPayoff;
+		tiedStrategyCount = 1;
+		currentIsBest = i == strategy;
+	    }
+	    else if (thisPayoff == bestPayoff) {
+		tiedStrategyCount++;
+		currentIsBest |= i == strategy;
+	    }
+	}
+	return !currentIsBest || tiedStrategyCount > 1;
+    }
+
+    private void updateActivity(int site) {
+	boolean active = isActive(site);
+	if (active && positions[site] < 0) {
+	    positions[site] = numActive;
+	    activeSites[numActive++] = site;
+	}
+	else if (!active && positions[site] >= 0) {
+	    // Move the last active site into the hole.
+	    int last = activeSites[--numActive];
+	    activeSites[positions[site]] = last;
+	    positions[last] = positions[site];
+	    positions[site] = -1;
+	}
+    }
+
+    private void initializeActiveSites() {
+	numActive = 0;
+	for (int i=0; i<positions.length; i++) {
+	    positions[i] = -1;
+	}
+	for (int i=0; i<positions.length; i++) {
+	    updateActivity(i);
+	}
+	payoffVersion = lattice.getPayoffVersion();
+    }
+
+    @Override
+    public double getTime() {
+	return time;
+    }
+
+    @Override
+    public void setTime(double time) {
+	this.time = time;
+    }
+
+    // The order of (activeSites) decides which site each step updates, and depends on the history of the run,
+    // so it's put back in the order a new engine would use.
+    @Override
+    public long[] getState() {
+	initializeActiveSites();
+	return new long[] {Double.doubleToRawLongBits(time)};
+    }
+
+    @Override
+    public void setState(long[] state) {
+	time = Double.longBitsToDouble(state[0]);
+    }
+
+    @Override
+    public Lattice getLattice() {
+	return lattice;
+    }
+}
@@ -0,0 +1,37 @@
+// Update method 7, "Best Response Dynamics". The chosen site switches to the strategy that would give it the
+// best payoff against its current neighbors, choosing uniformly among the strategies that tie.
+public class BestResponseRule extends UpdateRule {
+    private final int[] bestStrategies;
+
+    public BestResponseRule(Lattice lattice) {
+	super(lattice);
+	bestStrategies = new int[lattice.getNumStrategies()];
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new BestResponseRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	int numStrategies = bestStrategies.length;
+	// We first figure out what the best payoff is.
+	double bestPayoff = Double.NEGATIVE_INFINITY;
+	for (int i=0; i<numStrategies; i++) {
+	    double thisPayoff = lattice.getPayoffGivenStrategy(node, i);
+	    if (thisPayoff > bestPayoff) {
+		bestPayoff = thisPayoff;
+	    }
+	}
+	// We then figure out how many strategies have the best payoff, and then
+	// choose one of those strategies uniformly at random.
+	int tiedStrategyCount = 0;
+	for (int i=0; i<numStrategies; i++) {
+	    if (lattice.getPayoffGivenStrategy(node, i) == bestPayoff) {
+		bestStrategies[tiedStrategyCount++] = i;
+	    }
+	}
+	lattice.setStrategyAt(node, bestStrategies[lattice.rand.nextInt(tiedStrategyCount)]);
+    }
+}
@@ -0,0 +1,33 @@
+// Update method 0, "Payoff affecting birth and death". A site with a negative payoff dies at a rate proportional
+// to it, and is replaced by a copy of a random neighbor; a site with a positive payoff gives birth at a rate
+// proportional to it, replacing a random neighbor with a copy of itself.
+public class BirthDeathRule extends UpdateRule {
+    public BirthDeathRule(Lattice lattice) {
+	super(lattice);
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new BirthDeathRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	double payoff = lattice.getPayoff(node);
+	// Negative payoff => death rate. If the node dies, we replace it with a copy of a random neighbor.
+	if (payoff < 0) {
+	    if (lattice.rand.nextDouble() <= (-payoff / lattice.getMaxRate())) {
+		int neighbor = lattice.chooseNeighborAtRandom(node);
+		lattice.setStrategyAt(node, lattice.getStrategyAt(neighbor));
+	    }
+	}
+	// Positive payoff => birth rate. If the node gives birth, we replace a random neighbor with a copy of (node).
+	else if (payoff > 0) {
+	    if (lattice.rand.nextDouble() <= (payoff / lattice.getMaxRate())) {
+		int neighbor = lattice.chooseNeighborAtRandom(node);
+		lattice.setStrategyAt(neighbor, lattice.getStrategyAt(node));
+	    }
+	}
+	// TODO: What about zero??
+    }
+}
@@ -0,0 +1,108 @@
+// The mean of a series of correlated samples, and an error bar for it that allows for the correlation, by
+// Flyvbjerg and Petersen's blocking method.
+//
+// The standard error of independent samples, sqrt(variance/count), is too small for a series whose neighbors are
+// correlated, as a lattice's proportions are from one sample to the next. Averaging neighboring pairs of samples
+// halves the count and, once the pairs are further apart than the correlation time, raises the error to its
+// true value; so the samples are averaged in pairs, the pairs in pairs, and so on, and the statistics of every
+// level are kept, in one RunningStatistics each. The error is the largest of the levels' standard errors that
+// rest on at least MIN_BLOCKS blocks, below which they are too noisy to trust.
+//
+// Everything is allocated up front, so add() can be called from the simulation loop.
+public class BlockedStatistics {
+    public static final int MIN_BLOCKS = 32;
+    private static final int LEVELS = 48;
+
+    // levels[l] holds the means of blocks of 2^l samples; pending[l] a block waiting for its partner.
+    private final RunningStatistics[] levels = new RunningStatistics[LEVELS];
+    private final double[] pending = new double[LEVELS];
+    private final boolean[] hasPending = new boolean[LEVELS];
+
+    public BlockedStatistics() {
+	for (int l=0; l<LEVELS; l++) {
+	    levels[l] = new RunningStatistics();
+	}
+    }
+
+    public void add(double x) {
+	for (int l=0; l<LEVELS; l++) {
+	    levels[l].add(x);
+	    if (!hasPending[l]) {
+		pending[l] = x;
+		hasPending[l] = true;
+		return;
+	    }
+	    x = (pending[l] + x) / 2;
+	    hasPending[l] = false;
+	}
+    }
+
+    public void reset() {
+	for (int l=0; l<LEVELS; l++) {
+	    levels[l].reset();
+	    hasPending[l] = false;
+	}
+    }
+
+    public long getCount() {
+	return levels[0].getCount();
+    }
+
+    public double getMean() {
+	return levels[0].getMean();
+    }
+
+    // The variance of the samples themselves, as opposed to that of their mean.
+    public double getVariance() {
+	return levels[0].getVariance();
+    }
+
+    // The standard error of the mean as if the samples were independent.
+    public double getNaiveError() {
+	return levels[0].getStandardError();
+    }
+
+    // The standard error of the mean, allowing for the correlation between samples.
+    public double getError() {
+	double error = levels[0].getStandardError();
+	for (int l=1; l<LEVELS && levels[l].getCount() >= MIN_BLOCKS; l++) {
+	    error = Math.max(error, levels[l].getStandardError());
+	}
+	return error;
+    }
+
+    // The integrated autocorrelation time, in samples: how many samples are worth one independent one, over two.
+    public double getAutocorrelationTime() {
+	double naive = getNaiveError();
+	if (naive == 0)
+	    return 0.5;
+	double ratio = getError() / naive;
+	return 0.5 * ratio * ratio;
+    }
+
+    // Each level's statistics and pending block, for saving them along with a run.
+    public long[] getState() {
+	long[] state = new long[5*LEVELS];
+	for (int l=0; l<LEVELS; l++) {
+	    System.arraycopy(levels[l].getState(), 0, state, 5*l, 3);
+	    state[5*l + 3] = Double.doubleToLongBits(pending[l]);
+	    state[5*l + 4] = hasPending[l] ? 1 : 0;
+	}
+	return state;
+    }
+
+    public void setState(long[] state) {
+	long[] statistics = new long[3];
+	for (int l=0; l<LEVELS; l++) {
+	    System.arraycopy(state, 5*l, statistics, 0, 3);
+	    levels[l].setState(statistics);
+	    pending[l] = Double.longBitsToDouble(state[5*l + 3]);
+	    hasPending[l] = state[5*l + 4] != 0;
+	}
+    }
+
+    // The number of longs in getState().
+    public static int getStateLength() {
+	return 5*LEVELS;
+    }
+}
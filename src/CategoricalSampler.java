@@ -0,0 +1,91 @@
+import java.util.Arrays;
+
+// Draws one of (size) categories with probability proportional to its weight, in O(log size) time. The weights
+// are kept in a Fenwick tree: tree[i] holds the sum of the weights of categories i - (i & -i) through i-1, so
+// adding to a weight touches O(log size) entries, and so does finding the category a random point falls in.
+// The categories are laid out on [0, total] in order, so sample() picks the same category for the same point as
+// a linear scan over the running sums would.
+//
+// The update rules use one sampler per rule, add the weights of the few categories a neighborhood actually
+// contains, sample, and reset() it for the next update; reset() only clears what was added, so an update costs
+// O(degree * log size) rather than O(size), however many strategies there are.
+public class CategoricalSampler {
+    private final int size;
+    private final double[] tree;
+    private final int topStep;
+    private double total;
+    // The categories added to since the last reset(), possibly with repeats.
+    private int[] added;
+    private int numAdded;
+
+    public CategoricalSampler(int size) {
+	this.size = size;
+	tree = new double[size+1];
+	int step = 1;
+	while (step*2 <= size) {
+	    step *= 2;
+	}
+	topStep = step;
+	added = new int[16];
+    }
+
+    public void add(int category, double weight) {
+	if (numAdded == added.length)
+	    added = Arrays.copyOf(added, 2*added.length);
+	added[numAdded++] = category;
+	total += weight;
+	for (int i=category+1; i<=size; i+=i & -i) {
+	    tree[i] += weight;
+	}
+    }
+
+    // Sets every weight back to 0, in time proportional to the number of add() calls since the last reset.
+    public void reset() {
+	for (int k=0; k<numAdded; k++) {
+	    for (int i=added[k]+1; i<=size; i+=i & -i) {
+		tree[i] = 0;
+	    }
+	}
+	numAdded = 0;
+	total = 0;
+    }
+
+    // Returns the first category whose interval of [0, total] contains (point), i.e. the smallest i such that
+    // the weights of categories 0 through i add up to at least (point). Returns -1 if (point) isn't positive,
+    // or lies past the end (which rounding can cause when the caller computed the total separately).
+    public int sample(double point) {
+	if (!(point > 0))
+	    return -1;
+	int position = 0;
+	for (int step=topStep; step>0; step>>=1) {
+	    if (position + step <= size && tree[position + step] < point) {
+		position += step;
+		point -= tree[position];
+	    }
+	}
+	return position < size ? position : -1;
+    }
+
+    public double getTotal() {
+	return total;
+    }
+
+    public int getSize() {
+	return size;
+    }
+
+    // Returns the smallest k with cumulative[k] >= (key), by binary search over the running sums (cumulative),
+    // or the last index if (key) is past them all.
+    public static int search(double[] cumulative, double key) {
+	int low = 0;
+	int high = cumulative.length-1;
+	while (low < high) {
+	    int middle = (low + high) >>> 1;
+	    if (cumulative[middle] < key)
+		low = middle+1;
+	    else
+		high = middle;
+	}
+	return low;
+    }
+}
@@ -0,0 +1,264 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Finds the clusters of a lattice: the maximal sets of sites playing the same strategy that are connected
+// through nearest neighbors (the sites one step along an axis, wrapping around the torus), whatever the
+// lattice's interaction neighborhood. For each strategy it reports the number of clusters, the largest one, and
+// the distribution of their sizes, which together describe the domain structure of a configuration.
+//
+// The clusters are found by union-find, Hoshen-Kopelman style: one pass over the flat site array joins each site
+// to its previous neighbor along each axis if they play the same strategy. The forest lives in one int per site,
+// parents[site], which is the site's parent, or minus the size of its cluster if it's a root; clusters are joined
+// by size, and paths are halved as they are followed, so the pass takes close to linear time.
+//
+// The pass runs in parallel: the sites are split into bands of whole rows (whole planes in 3D), and each band is
+// scanned in its own task, which only joins sites within the band and so only writes its own part of the forest.
+// The pairs that straddle two bands, between the first row of a band and the last row of the one before, are
+// joined afterwards, and the roots are then counted band by band. The forest and the results are kept between
+// calls, so analyze() can be called every so often during a run and allocates only a few small tallies per band.
+//
+// It isn't a millisecond analysis on big lattices: a 4000 x 4000 lattice takes about 200 ms on one core (400 ms
+// packed), following the site array in order, and the bands divide that by the number of cores at best. Calling it
+// every few units of time is cheap next to the run; calling it every step is not.
+public class ClusterAnalyzer {
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    private Lattice lattice;
+    private int[] parents;
+    private int size;
+    private int dimensions;
+    private int numSites;
+    // The number of sites in one row (1D), plane (2D) or cube (3D) of the slowest axis, i.e. its stride.
+    private int layerSites;
+    private int[] bandBounds;
+
+    // The results, per strategy. sizeHistograms[s][k] counts the clusters with 2^k to 2^(k+1) - 1 sites.
+    private int numStrategies;
+    private long[] numClusters;
+    private int[] largestClusterSizes;
+    private long[][] sizeHistograms;
+
+    public ClusterAnalyzer() {
+	this(Runtime.getRuntime().availableProcessors());
+    }
+
+    // With a (parallelism) of 1, everything runs on the calling thread, so a sweep can give each of its own
+    // worker threads an analyzer.
+    public ClusterAnalyzer(int parallelism) {
+	this.parallelism = parallelism;
+	pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    // Finds the clusters of (lattice) as it is now. The lattice must not change meanwhile.
+    public void analyze(Lattice lattice) {
+	this.lattice = lattice;
+	initializeForest(lattice);
+	invoke(new BandTask(0, bandBounds.length-1, false));
+	joinBands();
+	if (numClusters == null || numClusters.length != numStrategies) {
+	    numClusters = new long[numStrategies];
+	    largestClusterSizes = new int[numStrategies];
+	    sizeHistograms = new long[numStrategies][32];
+	}
+	else {
+	    Arrays.fill(numClusters, 0);
+	    Arrays.fill(largestClusterSizes, 0);
+	    for (int s=0; s<numStrategies; s++) {
+		Arrays.fill(sizeHistograms[s], 0);
+	    }
+	}
+	invoke(new BandTask(0, bandBounds.length-1, true));
+    }
+
+    // Without a pool there is a single band, which the task handles without splitting.
+    private void invoke(BandTask task) {
+	if (pool != null)
+	    pool.invoke(task);
+	else
+	    task.compute();
+    }
+
+    private void initializeForest(Lattice lattice) {
+	size = lattice.getSize();
+	dimensions = lattice.getDimensions();
+	numSites = lattice.getNumSites();
+	numStrategies = lattice.getNumStrategies();
+	if (parents == null || parents.length != numSites)
+	    parents = new int[numSites];
+	layerSites = numSites / size;
+	// One band per worker is enough, and fewer bands means fewer pairs to join between them.
+	int numBands = Math.min(size, parallelism);
+	bandBounds = new int[numBands+1];
+	for (int b=0; b<=numBands; b++) {
+	    bandBounds[b] = (int) ((long) b * size / numBands) * layerSites;
+	}
+    }
+
+    // Joins every site of [from, to) to its previous neighbor along each axis, when the neighbor plays the same
+    // strategy and also lies in [from, to). The site's coordinates are counted along, rather than divided out.
+    private void scanBand(int from, int to) {
+	// Every site starts out alone; a neighbor that wraps around may come later in the band than the site itself.
+	Arrays.fill(parents, from, to, -1);
+	int[] coordinates = new int[dimensions];
+	int[] strides = new int[dimensions];
+	int stride = 1;
+	for (int d=0; d<dimensions; d++) {
+	    strides[d] = stride;
+	    coordinates[d] = (from / stride) % size;
+	    stride *= size;
+	}
+	for (int site=from; site<to; site++) {
+	    int strategy = lattice.getStrategyAt(site);
+	    for (int d=0; d<dimensions; d++) {
+		int neighbor = coordinates[d] == 0 ? site + (size-1)*strides[d] : site - strides[d];
+		if (neighbor >= from && neighbor < to && lattice.getStrategyAt(neighbor) == strategy)
+		    union(site, neighbor);
+	    }
+	    for (int d=0; d<dimensions && ++coordinates[d] == size; d++) {
+		coordinates[d] = 0;
+	    }
+	}
+    }
+
+    // Joins the pairs the bands left out: the first layer of each band with the last layer before it.
+    private void joinBands() {
+	int numBands = bandBounds.length-1;
+	if (numBands == 1)
+	    return;
+	for (int b=0; b<numBands; b++) {
+	    for (int site=bandBounds[b]; site<bandBounds[b] + layerSites; site++) {
+		int neighbor = getPreviousNeighbor(site, layerSites);
+		if (lattice.getStrategyAt(neighbor) == lattice.getStrategyAt(site))
+		    union(site, neighbor);
+	    }
+	}
+    }
+
+    // Counts the clusters rooted in [from, to) into the results; bands are counted separately and then added up.
+    private void countBand(int from, int to) {
+	long[] bandClusters = new long[numStrategies];
+	int[] bandLargest = new int[numStrategies];
+	long[][] bandHistograms = new long[numStrategies][32];
+	for (int site=from; site<to; site++) {
+	    int parent = parents[site];
+	    if (parent < 0) {
+		int strategy = lattice.getStrategyAt(site);
+		int clusterSize = -parent;
+		bandClusters[strategy]++;
+		if (clusterSize > bandLargest[strategy])
+		    bandLargest[strategy] = clusterSize;
+		bandHistograms[strategy][31 - Integer.numberOfLeadingZeros(clusterSize)]++;
+	    }
+	}
+	synchronized (this) {
+	    for (int s=0; s<numStrategies; s++) {
+		numClusters[s] += bandClusters[s];
+		largestClusterSizes[s] = Math.max(largestClusterSizes[s], bandLargest[s]);
+		for (int k=0; k<32; k++) {
+		    sizeHistograms[s][k] += bandHistograms[s][k];
+		}
+	    }
+	}
+    }
+
+    // The neighbor one step back along the axis whose sites are (stride) apart, wrapping around.
+    private int getPreviousNeighbor(int site, int stride) {
+	return (site / stride) % size == 0 ? site + (size-1)*stride : site - stride;
+    }
+
+    private int find(int site) {
+	while (parents[site] >= 0) {
+	    int parent = parents[site];
+	    if (parents[parent] >= 0)
+		parents[site] = parents[parent];
+	    site = parent;
+	}
+	return site;
+    }
+
+    private void union(int a, int b) {
+	int rootA = find(a);
+	int rootB = find(b);
+	if (rootA == rootB)
+	    return;
+	// The larger cluster (the more negative entry) absorbs the smaller one.
+	if (parents[rootA] > parents[rootB]) {
+	    int temp = rootA;
+	    rootA = rootB;
+	    rootB = temp;
+	}
+	parents[rootA] += parents[rootB];
+	parents[rootB] = rootA;
+    }
+
+    // Returns the site that identifies the cluster of (site) in the last analysis: two sites are in the same
+    // cluster exactly when this is the same for both.
+    public int getClusterOf(int site) {
+	return find(site);
+    }
+
+    // Returns the number of sites in the cluster of (site).
+    public int getClusterSizeOf(int site) {
+	return -parents[find(site)];
+    }
+
+    public long getNumClusters(int strategy) {
+	return numClusters[strategy];
+    }
+
+    public int getLargestClusterSize(int strategy) {
+	return largestClusterSizes[strategy];
+    }
+
+    // Returns the fraction of all sites that belong to the largest cluster of (strategy).
+    public double getLargestClusterFraction(int strategy) {
+	return (double) largestClusterSizes[strategy] / (double) numSites;
+    }
+
+    // Returns the average number of sites in a cluster of (strategy), or 0 if it has none.
+    public double getMeanClusterSize(int strategy) {
+	if (numClusters[strategy] == 0)
+	    return 0;
+	return (double) lattice.getStrategyCountOf(strategy) / (double) numClusters[strategy];
+    }
+
+    // Returns the size distribution of the clusters of (strategy) in powers of two: element k is the number of
+    // clusters of 2^k to 2^(k+1) - 1 sites.
+    public long[] getSizeHistogram(int strategy) {
+	return sizeHistograms[strategy];
+    }
+
+    public void shutdown() {
+	if (pool != null)
+	    pool.shutdown();
+    }
+
+    // Scans (or, if (count), counts) bands[from] through bands[to-1], splitting the range so idle workers can
+    // steal half of it.
+    private class BandTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final int from, to;
+	private final boolean count;
+
+	private BandTask(int from, int to, boolean count) {
+	    this.from = from;
+	    this.to = to;
+	    this.count = count;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from == 1) {
+		if (count)
+		    countBand(bandBounds[from], bandBounds[to]);
+		else
+		    scanBand(bandBounds[from], bandBounds[to]);
+		return;
+	    }
+	    int middle = (from + to) >>> 1;
+	    invokeAll(new BandTask(from, middle, count), new BandTask(middle, to, count));
+	}
+    }
+}
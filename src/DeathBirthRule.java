@@ -0,0 +1,54 @@
+// Update method 2, the "Death-birth process", due to Nowak. The chosen site dies, and its neighbors compete to
+// fill it: each strategy wins with probability proportional to the total payoff of the neighbors playing it.
+// Technically, fitness = (1-w) + w*payoff, where w is the selection parameter, but we deal only with w = 1.
+public class DeathBirthRule extends UpdateRule {
+    // The total payoff of each strategy among the neighbors, in a sampler that picks a strategy in proportion
+    // to it. Only the strategies present are touched, so an update doesn't scan every strategy.
+    protected final CategoricalSampler strategyPayoffs;
+
+    public DeathBirthRule(Lattice lattice) {
+	super(lattice);
+	strategyPayoffs = new CategoricalSampler(lattice.getNumStrategies());
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new DeathBirthRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	// We keep track of the payoffs of each strategy.
+	strategyPayoffs.reset();
+	// Fill the payoffs array by checking the payoff of each neighbor and adding it to the appropriate cell.
+	// Own payoff NOT included
+	double totalPayoff = addNeighborPayoffs(node);
+	chooseStrategy(node, totalPayoff);
+    }
+
+    // Adds the payoff of each neighbor of (node) to its strategy's total, and returns the sum.
+    protected double addNeighborPayoffs(int node) {
+	double totalPayoff = 0;
+	int degree = lattice.getDegree();
+	for (int i=0; i<degree; i++) {
+	    int thisNeighbor = lattice.getNeighborOf(node, i);
+	    double thisPayoff = lattice.getPayoff(thisNeighbor);
+	    strategyPayoffs.add(lattice.getStrategyAt(thisNeighbor), thisPayoff);
+	    totalPayoff += thisPayoff;
+	}
+	return totalPayoff;
+    }
+
+    // Replaces (node) with strategy i with probability (payoff of strategy i) / (totalPayoff).
+    protected void chooseStrategy(int node, double totalPayoff) {
+	// Finally, we use a random double to determine which strategy we use.
+	double key = lattice.rand.nextDouble();
+
+	// We divide [0, totalPayoff] into intervals, one per strategy in order, with the ith interval as long as
+	// the payoff of strategy i. If (key) scaled up to [0, totalPayoff] is in the ith interval, strategy i
+	// replaces (node).
+	int strategy = strategyPayoffs.sample(key * totalPayoff);
+	if (strategy >= 0)
+	    lattice.setStrategyAt(node, strategy);
+    }
+}
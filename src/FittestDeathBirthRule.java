@@ -0,0 +1,52 @@
+// Update method 5, "Death-birth of the fittest". The chosen site dies and is replaced by a copy of its
+// fittest neighbor (one chosen at random, if several tie).
+public class FittestDeathBirthRule extends UpdateRule {
+    protected final double[] neighborPayoffs;
+    protected final int[] neighborStrategies;
+
+    public FittestDeathBirthRule(Lattice lattice) {
+	super(lattice);
+	neighborPayoffs = new double[lattice.getDegree()];
+	neighborStrategies = new int[lattice.getDegree()];
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new FittestDeathBirthRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	int degree = neighborPayoffs.length;
+	double maxPayoff = findNeighborPayoffs(node);
+
+	// We choose random neighbors until we get one that has maximum payoff.
+	while (true) {
+	    int key = lattice.rand.nextInt(degree);
+	    if (neighborPayoffs[key] == maxPayoff) {
+		// Replace (node) with the chosen strategy.
+		lattice.setStrategyAt(node, neighborStrategies[key]);
+		return;
+	    }
+	}
+    }
+
+    // Stores the payoff and strategy of each neighbor of (node), in the order of the neighbor table,
+    // and returns the maximum payoff.
+    protected double findNeighborPayoffs(int node) {
+	int degree = neighborPayoffs.length;
+	for (int i=0; i<degree; i++) {
+	    int thisNeighbor = lattice.getNeighborOf(node, i);
+	    neighborPayoffs[i] = lattice.getPayoff(thisNeighbor);
+	    neighborStrategies[i] = lattice.getStrategyAt(thisNeighbor);
+	}
+
+	double maxPayoff = Double.NEGATIVE_INFINITY;
+	for (int i=0; i<degree; i++) {
+	    if (neighborPayoffs[i] > maxPayoff) {
+		maxPayoff = neighborPayoffs[i];
+	    }
+	}
+	return maxPayoff;
+    }
+}
@@ -0,0 +1,39 @@
+// Update method 6, "Imitation of the fittest". It's the same as death-birth of the fittest, but instead of
+// dying, the node may choose to "imitate itself" (i.e., not change) if it is among the fittest.
+public class ImitateFittestRule extends FittestDeathBirthRule {
+    public ImitateFittestRule(Lattice lattice) {
+	super(lattice);
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new ImitateFittestRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	int degree = neighborPayoffs.length;
+	double maxPayoff = findNeighborPayoffs(node);
+	// We also find the payoff of (node)
+	double nodePayoff = lattice.getPayoff(node);
+	if (nodePayoff > maxPayoff)
+	    maxPayoff = nodePayoff;
+
+	// Finally, we produce a random integer between 0 and (degree).
+	// If the random integer coincides with a neighbor who has maximum payoff,
+	// we change the strategy at node to match the strategy at that neighbor; if
+	// it coincides with the node itself, we do nothing and return.
+	while (true) {
+	    int key = lattice.rand.nextInt(degree + 1);
+	    if (key < degree) {
+		if (neighborPayoffs[key] == maxPayoff) {
+		    // Replace (node) with the chosen strategy.
+		    lattice.setStrategyAt(node, neighborStrategies[key]);
+		    return;
+		}
+	    }
+	    else if (nodePayoff == maxPayoff)
+		return;
+	}
+    }
+}
@@ -0,0 +1,25 @@
+// Update method 3, the "Imitation process". This is the death-birth process, but the payoff pool
+// includes the payoff of (node) itself, which competes to keep its own strategy.
+public class ImitationRule extends DeathBirthRule {
+    public ImitationRule(Lattice lattice) {
+	super(lattice);
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new ImitationRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	strategyPayoffs.reset();
+	double totalPayoff = addNeighborPayoffs(node);
+
+	// Add the payoff of (node) to the pool.
+	double ownPayoff = lattice.getPayoff(node);
+	strategyPayoffs.add(lattice.getStrategyAt(node), ownPayoff);
+	totalPayoff += ownPayoff;
+
+	chooseStrategy(node, totalPayoff);
+    }
+}
@@ -0,0 +1,109 @@
+// A rejection-free ("n-fold way", or Gillespie) engine for update methods 0 and 1.
+//
+// Random-sequential updating picks a site and then accepts with probability |payoff| / maxRate, so when the
+// payoffs are small next to the maximum rate almost every step does nothing. Over one unit of time that
+// amounts to each site firing at rate |payoff|, independently. This engine keeps those rates in a RateTree,
+// picks the next site to fire with probability proportional to its rate, and advances the time by an
+// exponential waiting time with the total rate, which gives the same statistics without any rejected steps.
+public class KineticMonteCarloEngine implements SimulationEngine {
+    private Lattice lattice;
+    private RateTree rates;
+    private double time;
+    private int payoffVersion;
+
+    public KineticMonteCarloEngine(Lattice lattice) {
+	if (!supports(lattice.getUpdateMethod())) {
+	    System.err.println("The kinetic Monte Carlo engine only runs update methods 0 and 1. EXITING.");
+	    System.exit(1);
+	}
+	this.lattice = lattice;
+	rates = new RateTree(lattice.getNumSites());
+	initializeRates();
+    }
+
+    public static boolean supports(int updateMethod) {
+	return updateMethod == 0 || updateMethod == 1;
+    }
+
+    @Override
+    public boolean step() {
+	// A change to the payoff matrix changes every rate.
+	if (payoffVersion != lattice.getPayoffVersion())
+	    initializeRates();
+
+	double totalRate = rates.getTotal();
+	if (totalRate <= 0)
+	    return false;
+
+	int node = rates.find(lattice.rand.nextDouble() * totalRate);
+	// Rounding can land us on a site that can't fire; such a site is simply skipped.
+	if (rates.get(node) <= 0)
+	    return true;
+	time += -Math.log(1.0 - lattice.rand.nextDouble()) / totalRate;
+
+	// Negative payoff => the node dies and is replaced by a copy of a random neighbor.
+	// Positive payoff => the node gives birth, replacing a random neighbor with a copy of itself.
+	int neighbor = lattice.chooseNeighborAtRandom(node);
+	if (lattice.getPayoff(node) < 0) {
+	    setStrategyAt(node, lattice.getStrategyAt(neighbor));
+	}
+	else {
+	    setStrategyAt(neighbor, lattice.getStrategyAt(node));
+	}
+	return true;
+    }
+
+    // Sets the strategy at (site), then refreshes the rates of the sites whose payoffs depend on it.
+    private void setStrategyAt(int site, int strategy) {
+	if (lattice.getStrategyAt(site) == strategy)
+	    return;
+	lattice.setStrategyAt(site, strategy);
+	updateRate(site);
+	for (int k=0; k<lattice.getDegree(); k++) {
+	    updateRate(lattice.getNeighborOf(site, k));
+	}
+    }
+
+    private void updateRate(int site) {
+	rates.set(site, Math.abs(lattice.getPayoff(site)));
+    }
+
+    private void initializeRates() {
+	for (int i=0; i<lattice.getNumSites(); i++) {
+	    updateRate(i);
+	}
+	rates.rebuild();
+	payoffVersion = lattice.getPayoffVersion();
+    }
+
+    @Override
+    public double getTime() {
+	return time;
+    }
+
+    @Override
+    public void setTime(double time) {
+	this.time = time;
+    }
+
+    // The partial sums of the rates drift from what a new engine would compute, by rounding, so they're rebuilt
+    // first; the rates themselves depend only on the lattice.
+    @Override
+    public long[] getState() {
+	if (payoffVersion != lattice.getPayoffVersion())
+	    initializeRates();
+	else
+	    rates.rebuild();
+	return new long[] {Double.doubleToRawLongBits(time)};
+    }
+
+    @Override
+    public void setState(long[] state) {
+	time = Double.longBitsToDouble(state[0]);
+    }
+
+    @Override
+    public Lattice getLattice() {
+	return lattice;
+    }
+}
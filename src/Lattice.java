@@ -1,14 +1,12 @@
 import java.awt.Color;
-import java.awt.Graphics;
 import java.awt.Point;
-import java.awt.image.BufferedImage;
-import java.awt.image.WritableRaster;
-import java.util.ArrayList;
-import java.util.Random;
+import java.util.Arrays;
 
 public class Lattice {
     // Defaults
     protected static final int DEFAULT_SIZE = 100;
+    // The smallest size a side that createParallelEngine() splits into tiles: 8 tiles of the default size a side.
+    public static final int PARALLEL_MIN_SIZE = 256;
     protected static final double[][] DEFAULT_3STRATEGY_PAYOFF_MATRIX = {{1,1,1},{1,1,1},{1,1,1}};
     protected static final double[][] DEFAULT_2STRATEGY_PAYOFF_MATRIX = {{6,3},{6,3}};
     protected static final int DEFAULT_DIMENSIONS = 2;
@@ -19,14 +17,61 @@ public class Lattice {
     protected static final int DEFAULT_UPDATE_METHOD = 0;
     protected static final Color[] STRATEGY_COLORS = {Color.red, Color.green, Color.blue};
     protected static final String[] STRATEGY_COLOR_NAMES = {"Red", "Green", "Blue"};
+    // Strategies past the named colors get hues spaced by the golden angle, so that any number stay distinct.
+    private static final float GOLDEN_RATIO_CONJUGATE = 0.618034f;
+
+    // A site's strategy is one unsigned byte.
+    public static final int MAX_STRATEGIES = 256;
+    // The payoff table has (numStrategies)*(degree+1)^(numStrategies-1) entries, which grows quickly with the
+    // number of strategies. Past this many, no compositions are kept, and payoffs are summed over the neighbors.
+    public static final long MAX_PAYOFF_TABLE_ENTRIES = 1L << 20;
+
+    // The 2D and 3D neighborhoods. Both are (interactionRange) sites wide: von Neumann takes the sites within that
+    // many steps along the axes, Moore the whole square or cube. In 3D with range 1, that's the 6 and the 26 nearest
+    // neighbors. A custom neighborhood is any symmetric set of offsets.
+    public static final int NEIGHBORHOOD_VON_NEUMANN = 0;
+    public static final int NEIGHBORHOOD_MOORE = 1;
+    public static final int NEIGHBORHOOD_CUSTOM = 2;
+    public static final String[] NEIGHBORHOOD_NAMES = {"von Neumann", "Moore", "Custom"};
 
     // Random number generator for all random numbers
-    protected Random rand;
+    protected RandomSource rand;
 
-    // Active instance variables
-    protected int[][] array;
+    // Active instance variables. The strategies are stored in a single flat array indexed by site number;
+    // in 2D, the site at (x, y) has index y*size + x, so a row of the lattice is a contiguous run of sites.
+    protected byte[] sites;
+    protected int numSites;
     protected double[][] payoffMatrix;
-    protected BufferedImage image;
+
+    // The neighbors of every site, precomputed once per lattice. The neighbors of site i are
+    // neighbors[i*degree] through neighbors[i*degree + degree-1]. (neighbors) is null if the table was too
+    // large to store, in which case the neighbors are computed by (neighborTable).
+    protected NeighborTable neighborTable;
+    protected int[] neighbors;
+    protected int degree;
+    protected int neighborhood;
+    protected int[][] customOffsets;
+
+    // The composition of every site's neighborhood, i.e. how many of its neighbors play each strategy,
+    // packed into a single code: composition[i] = sum of count(s) * compositionWeights[s]. The last
+    // strategy has weight 0, since its count is (degree) minus the others. The codes are kept current
+    // by setStrategyAt(), so a payoff is one read from (payoffTable), indexed by (strategy, code).
+    // With too many strategies for the table (see MAX_PAYOFF_TABLE_ENTRIES), all four are null, and a payoff
+    // is the sum of the payoff matrix entries against each neighbor instead, which costs O(degree) whatever
+    // the number of strategies.
+    protected int[] composition;
+    protected int[] compositionWeights;
+    protected int numCompositions;
+    protected double[] payoffTable;
+    // The neighborhood as runs of consecutive sites in a row (see NeighborTable.getRuns()), used to update and
+    // build the compositions when a 2D neighborhood is large; null when the table is used instead.
+    protected int[] compositionRuns;
+    protected double maxRate;
+    // Incremented whenever the payoff table is rebuilt, so that engines caching payoffs know to refresh them.
+    protected int payoffVersion;
+
+    // The update method, as an object; see UpdateRule.
+    protected UpdateRule rule;
 
     // Parameter instance variables
     protected int size;
@@ -35,6 +80,11 @@ public class Lattice {
     protected int interactionRange;
     protected double[] initProportionMasks;
     protected int[] strategyCounts;
+    // The number of neighbor pairs whose sites play different strategies, each pair counted once (or as often as
+    // it occurs in the neighborhood, for a custom one with repeated offsets). setStrategyAt() keeps it current
+    // from the composition of the site it changes, so it costs no more than the counts do. A view records only
+    // the changes made through it, like its strategy counts.
+    protected long discordantEdges;
     protected int updateMethod;
 
     public Lattice() {
@@ -43,37 +93,95 @@ public class Lattice {
 	numStrategies = DEFAULT_NUM_STRATEGIES;
 	interactionRange = DEFAULT_INTERACTION_RANGE;
 	updateMethod = DEFAULT_UPDATE_METHOD;
-	rand = new Random();
+	rand = RandomSource.create(RandomSource.randomSeed());
 
 	initializeLattice();
 	checkMode();
     }
 
     public Lattice(int dimensions, int numStrategies, int interactionRange, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix) {
-	this.size = DEFAULT_SIZE;
+	this(DEFAULT_SIZE, dimensions, numStrategies, interactionRange, initProportionMasks, updateMethod, payoffMatrix);
+    }
+
+    public Lattice(int size, int dimensions, int numStrategies, int interactionRange, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix) {
+	this(size, dimensions, numStrategies, interactionRange, initProportionMasks, updateMethod, payoffMatrix, RandomSource.randomSeed());
+    }
+
+    // The (seed) determines the initial configuration and every random choice after it, so two lattices
+    // built with the same arguments run identically.
+    public Lattice(int size, int dimensions, int numStrategies, int interactionRange, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix, long seed) {
+	this(size, dimensions, numStrategies, interactionRange, initProportionMasks, updateMethod, payoffMatrix, RandomSource.create(seed));
+    }
+
+    // As above, but with a generator of the caller's choosing; its seed plays the same role.
+    public Lattice(int size, int dimensions, int numStrategies, int interactionRange, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix, RandomSource rand) {
+	this(size, dimensions, numStrategies, interactionRange, updateMethod, rand);
+	initializeLattice(initProportionMasks, payoffMatrix);
+	checkMode();
+    }
+
+    // Sets the parameters without allocating anything, for subclasses that have to set up their own storage
+    // before the sites are drawn. They call initializeLattice() and checkMode() themselves once they're ready.
+    protected Lattice(int size, int dimensions, int numStrategies, int interactionRange, int updateMethod, RandomSource rand) {
+	this.size = size;
 	this.dimensions = dimensions;
 	this.numStrategies = numStrategies;
 	this.interactionRange = interactionRange;
 	this.updateMethod = updateMethod;
-	rand = new Random();
+	this.rand = rand;
+    }
+
+    // Creates a view of (lattice) that shares its sites, neighbor table, compositions and payoff table, but has
+    // its own random number generator, scratch buffers and strategy counts. The counts of a view start at zero and
+    // record only the changes made through it, until they are merged back with mergeView(). Engines that update
+    // disjoint parts of one lattice concurrently give each worker its own view.
+    protected Lattice(Lattice lattice, long seed) {
+	size = lattice.size;
+	dimensions = lattice.dimensions;
+	numStrategies = lattice.numStrategies;
+	interactionRange = lattice.interactionRange;
+	initProportionMasks = lattice.initProportionMasks;
+	updateMethod = lattice.updateMethod;
+	sites = lattice.sites;
+	numSites = lattice.numSites;
+	payoffMatrix = lattice.payoffMatrix;
+	neighborTable = lattice.neighborTable;
+	neighbors = lattice.neighbors;
+	degree = lattice.degree;
+	neighborhood = lattice.neighborhood;
+	customOffsets = lattice.customOffsets;
+	compositionRuns = lattice.compositionRuns;
+	composition = lattice.composition;
+	compositionWeights = lattice.compositionWeights;
+	numCompositions = lattice.numCompositions;
+	payoffTable = lattice.payoffTable;
+	maxRate = lattice.maxRate;
+	payoffVersion = lattice.payoffVersion;
+	rand = lattice.rand.newInstance(seed);
 
-	initializeLattice(initProportionMasks, payoffMatrix);
-	checkMode();
+	strategyCounts = new int[numStrategies];
+	rule = lattice.rule.createFor(this);
+    }
+
+    public Lattice createView(long seed) {
+	return new Lattice(this, seed);
+    }
+
+    // Adds the changes recorded by (view) to this lattice's counts, and clears them from the view.
+    public void mergeView(Lattice view) {
+	for (int i=0; i<numStrategies; i++) {
+	    strategyCounts[i] += view.strategyCounts[i];
+	    view.strategyCounts[i] = 0;
+	}
+	discordantEdges += view.discordantEdges;
+	view.discordantEdges = 0;
     }
 
     protected void initializeLattice() {
 	strategyCounts = new int[numStrategies];
 	initProportionMasks = new double[numStrategies];
-	if (numStrategies == 2) {
-	    for (int i=0; i<numStrategies; i++) {
-		initProportionMasks[i] = DEFAULT_2STRATEGY_INIT_PROPORTION_MASKS[i];
-	    }
-
-	}
-	else if (numStrategies == 3) {
-	    for (int i=0; i<numStrategies; i++) {
-		initProportionMasks[i] = DEFAULT_3STRATEGY_INIT_PROPORTION_MASKS[i];
-	    }
+	for (int i=0; i<numStrategies; i++) {
+	    initProportionMasks[i] = getDefaultInitProportionMask(numStrategies, i);
 	}
 	initializePayoffMatrix();
 	initializeArray();
@@ -82,21 +190,36 @@ public class Lattice {
     protected void initializeLattice(double[][] payoffMatrix) {
 	strategyCounts = new int[numStrategies];
 	initProportionMasks = new double[numStrategies];
-	if (numStrategies == 2) {
-	    for (int i=0; i<numStrategies; i++) {
-		initProportionMasks[i] = DEFAULT_2STRATEGY_INIT_PROPORTION_MASKS[i];
-	    }
-
-	}
-	else if (numStrategies == 3) {
-	    for (int i=0; i<numStrategies; i++) {
-		initProportionMasks[i] = DEFAULT_3STRATEGY_INIT_PROPORTION_MASKS[i];
-	    }
+	for (int i=0; i<numStrategies; i++) {
+	    initProportionMasks[i] = getDefaultInitProportionMask(numStrategies, i);
 	}
 	initializePayoffMatrix(payoffMatrix);
 	initializeArray();
     }
 
+    // Every strategy starts out equally common by default.
+    protected static double getDefaultInitProportionMask(int numStrategies, int strategy) {
+	if (numStrategies == 2)
+	    return DEFAULT_2STRATEGY_INIT_PROPORTION_MASKS[strategy];
+	if (numStrategies == 3)
+	    return DEFAULT_3STRATEGY_INIT_PROPORTION_MASKS[strategy];
+	return 1;
+    }
+
+    // Past 3 strategies, the default game is a generalized rock-paper-scissors: each strategy beats the next
+    // (numStrategies-1)/2 strategies, cyclically, and loses to the rest. A win pays 2, a tie 1 and a loss 0, so
+    // the payoffs are valid for every update method. With 5 strategies, this is rock-paper-scissors-lizard-Spock.
+    protected static double getDefaultPayoff(int numStrategies, int i, int j) {
+	if (numStrategies == 2)
+	    return DEFAULT_2STRATEGY_PAYOFF_MATRIX[i][j];
+	if (numStrategies == 3)
+	    return DEFAULT_3STRATEGY_PAYOFF_MATRIX[i][j];
+	int distance = ((j - i) % numStrategies + numStrategies) % numStrategies;
+	if (distance == 0 || 2*distance == numStrategies)
+	    return 1;
+	return 2*distance < numStrategies ? 2 : 0;
+    }
+
     protected void initializeLattice(double[] initProportionMasks, double[][] payoffMatrix) {
 	strategyCounts = new int[numStrategies];
 	this.initProportionMasks = new double[numStrategies];
@@ -114,614 +237,440 @@ public class Lattice {
     }
 
     protected void initializeArray() {
-	// We allocate memory for the array depending on the dimension
-	if (dimensions == 1) {
-	    array = new int[size][1];
+	initializeNumSites();
+	sites = new byte[numSites];
+	initializeNeighborTable();
+	initializeUpdateRule();
+
+	double[] sumToI = getInitProportionSums();
+
+	// The layout is the same flat array in every dimension, so we fill every site the same way.
+	for (int i=0; i<numSites; i++) {
+	    int strategy = CategoricalSampler.search(sumToI, rand.nextDouble());
+	    sites[i] = (byte) strategy;
+	    strategyCounts[strategy]++;
 	}
-	else {
-	    array = new int[size][size];
+
+	initializeComposition();
+	initializePayoffTable();
+	initializeDiscordantEdges();
+    }
+
+    // Counts the discordant neighbor pairs from scratch: each is seen from both of its sites.
+    protected void initializeDiscordantEdges() {
+	long sum = 0;
+	for (int i=0; i<numSites; i++) {
+	    sum += degree - getNeighborCountOf(i, getStrategyAt(i));
 	}
+	discordantEdges = sum / 2;
+    }
 
+    // Returns the running sums of the initial proportions, which divide [0, 1] among the strategies.
+    protected double[] getInitProportionSums() {
 	double[] sumToI = new double[numStrategies];
 	sumToI[0] = getInitProportionOf(0);
 	for (int i=1; i<numStrategies; i++) {
 	    sumToI[i] = sumToI[i-1] + getInitProportionOf(i);
 	}
+	return sumToI;
+    }
 
-	// In the 1D case, we use only the first column.
+    // Works out the number of sites from the size and dimensions.
+    protected void initializeNumSites() {
 	if (dimensions == 1) {
-	    for (int i=0; i<array.length; i++) {
-		double key = rand.nextDouble();
-		if (key > 0 && key <= sumToI[0]) {
-		    array[i][0] = 0;
-		    strategyCounts[0]++;
-		}
-		else {
-		    for(int j=1; j<sumToI.length; j++) {
-			if (key > sumToI[j-1] && key <= sumToI[j]) {
-			    array[i][0] = j;
-			    strategyCounts[j]++;
-			}
-		    }
-		}
-	    }
+	    numSites = size;
 	}
-	// In 2D, we use (size) columns and (size) rows.
 	else if (dimensions == 2) {
-	    for (int i=0; i<array.length; i++) {
-		for (int j=0; j<array[0].length; j++) {
-		    double key = rand.nextDouble();
-		    if (key > 0 && key <= sumToI[0]) {
-			array[i][j] = 0;
-			strategyCounts[0]++;
-		    }
-		    else {
-			for (int k=1; k<sumToI.length; k++) {
-			    if (key > sumToI[k-1] && key <= sumToI[k]) {
-				array[i][j] = k;
-				strategyCounts[k]++;
-			    }
-			}
-		    }
-		}
+	    numSites = size*size;
+	}
+	else {
+	    if ((long) size*size*size > Integer.MAX_VALUE) {
+		System.err.println("A 3D lattice can have at most " + Integer.MAX_VALUE + " sites. EXITING.");
+		System.exit(1);
 	    }
+	    numSites = size*size*size;
 	}
+    }
+
+    // Computes the neighborhood composition code of every site from scratch.
+    protected void initializeComposition() {
+	if (!initializeCompositionWeights()) {
+	    composition = null;
+	    return;
+	}
+	if (composition == null || composition.length != numSites)
+	    composition = new int[numSites];
 
 	if (dimensions == 1) {
-	    if (numStrategies == 2) {
-		image = new BufferedImage(size, 1, BufferedImage.TYPE_BYTE_BINARY);
-		WritableRaster raster = image.getRaster();
-		raster.setPixels(0, 0, size, 1, makeRasterArray());
-	    }
-	    else if (numStrategies == 3) {
-		image = new BufferedImage(size, 1, BufferedImage.TYPE_INT_RGB);
-		WritableRaster raster = image.getRaster();
-		raster.setPixels(0, 0, size, 1, makeRasterArray());
+	    initializeComposition1D();
+	    return;
+	}
+	if (compositionRuns != null) {
+	    initializeCompositionFromRuns();
+	    return;
+	}
+	for (int i=0; i<numSites; i++) {
+	    int code = 0;
+	    for (int k=i*degree; k<(i+1)*degree; k++) {
+		code += compositionWeights[sites[neighbors[k]] & 0xFF];
 	    }
+	    composition[i] = code;
 	}
+    }
 
-	else if (dimensions == 2) {
-	    if (numStrategies == 2) {
-		image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_BINARY);
-		WritableRaster raster = image.getRaster();
-		raster.setPixels(0, 0, size, size, makeRasterArray());
-	    }
-	    else if (numStrategies == 3) {
-		image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
-		WritableRaster raster = image.getRaster();
-		raster.setPixels(0, 0, size, size, makeRasterArray());
-	    }
+    // Sets up the weights of the composition codes for the current neighborhood and number of strategies.
+    // Returns false, leaving (compositionWeights) null, if there are too many strategies to tabulate.
+    protected boolean initializeCompositionWeights() {
+	long weight = 1;
+	for (int s=0; s<numStrategies-1 && numStrategies*weight <= MAX_PAYOFF_TABLE_ENTRIES; s++) {
+	    weight *= degree + 1;
 	}
+	if (numStrategies*weight > MAX_PAYOFF_TABLE_ENTRIES) {
+	    compositionWeights = null;
+	    numCompositions = 0;
+	    return false;
+	}
+	compositionWeights = new int[numStrategies];
+	weight = 1;
+	for (int s=0; s<numStrategies-1; s++) {
+	    compositionWeights[s] = (int) weight;
+	    weight *= degree + 1;
+	}
+	compositionWeights[numStrategies-1] = 0;
+	numCompositions = (int) weight;
+	return true;
     }
 
-    public void initializePayoffMatrix() {
-	payoffMatrix = new double[numStrategies][numStrategies];
-	if (numStrategies == 2) {
-	    for (int i=0; i<numStrategies; i++) {
-		for (int j=0; j<numStrategies; j++) {
-		    payoffMatrix[i][j] = DEFAULT_2STRATEGY_PAYOFF_MATRIX[i][j];
+    // With a large neighborhood, or no neighbor table, the codes are built row by row from running sums of the
+    // weights along each row of the neighborhood, so the cost per site is the number of runs (about 2*range in
+    // 2D) rather than the degree. Only one row's sums are kept at a time, since the runs are sorted by row.
+    protected void initializeCompositionFromRuns() {
+	int numRows = numSites / size;
+	int[] rowSums = new int[size+1];
+	int summedRow = -1;
+	for (int row=0; row<numRows; row++) {
+	    int rowStart = row*size;
+	    Arrays.fill(composition, rowStart, rowStart + size, 0);
+	    for (int r=0; r<compositionRuns.length; r+=NeighborTable.RUN_FIELDS) {
+		int source = getRunRowStart(row % size, row / size, r);
+		if (source != summedRow) {
+		    for (int x=0; x<size; x++) {
+			rowSums[x+1] = rowSums[x] + compositionWeights[sites[source + x] & 0xFF];
+		    }
+		    summedRow = source;
 		}
-	    }
-	}
-	else if (numStrategies == 3) {
-	    for (int i=0; i<numStrategies; i++) {
-		for (int j=0; j<numStrategies; j++) {
-		    payoffMatrix[i][j] = DEFAULT_3STRATEGY_PAYOFF_MATRIX[i][j];
+		int from = ((compositionRuns[r+2] % size) + size) % size;
+		int length = compositionRuns[r+3];
+		for (int x=0; x<size; x++) {
+		    composition[rowStart + x] += sumRowRun(rowSums, from, length);
+		    if (++from == size)
+			from = 0;
 		}
 	    }
 	}
     }
 
-    public void initializePayoffMatrix(double[][] payoffMatrix) {
-	this.payoffMatrix = new double[numStrategies][numStrategies];
-	if (numStrategies == payoffMatrix.length && numStrategies == payoffMatrix[0].length) {
-	    for (int i=0; i<numStrategies; i++) {
-		for (int j=0; j<numStrategies; j++) {
-		    this.payoffMatrix[i][j] = payoffMatrix[i][j];
+    // Returns the sum of the (length) entries of a row starting at (from), wrapping around the end of the row,
+    // given the row's running sums.
+    private int sumRowRun(int[] rowSums, int from, int length) {
+	int sum = (length / size) * rowSums[size];
+	int to = from + length % size;
+	if (to <= size)
+	    return sum + rowSums[to] - rowSums[from];
+	return sum + rowSums[size] - rowSums[from] + rowSums[to - size];
+    }
+
+    // Returns the first site of the row that run (r) of (compositionRuns) lies in, as seen from row (y) of plane (z).
+    protected int getRunRowStart(int y, int z, int r) {
+	int ny = ((y + compositionRuns[r+1]) % size + size) % size;
+	int nz = ((z + compositionRuns[r]) % size + size) % size;
+	return (nz*size + ny)*size;
+    }
+
+    // Tabulates the payoff of every (strategy, composition) pair, and the maximum rate, from the payoff matrix.
+    // This must be called whenever the payoff matrix or the neighborhood changes.
+    protected void initializePayoffTable() {
+	if (compositionWeights == null)
+	    payoffTable = null;
+	else if (payoffTable == null || payoffTable.length != numStrategies*numCompositions)
+	    payoffTable = new double[numStrategies*numCompositions];
+	for (int code=0; code<numCompositions; code++) {
+	    for (int s=0; s<numStrategies; s++) {
+		double payoff = 0;
+		for (int t=0; t<numStrategies; t++) {
+		    payoff += getCompositionCount(code, t) * payoffMatrix[s][t];
 		}
+		payoffTable[s*numCompositions + code] = payoff;
 	    }
 	}
-	else {
-	    System.err.println("Argument length is invalid... EXITING");
-	    System.exit(1);
-	}
-    }
 
-    public void chooseAndUpdateNode() {
-	if (dimensions == 1) {
-	    updateNode1D(chooseNodeAtRandom1D());
+	double maxAbsolutePayoffCoefficient = Double.NEGATIVE_INFINITY;
+	for(int i=0; i<numStrategies; i++) {
+	    for(int j=0; j<numStrategies; j++) {
+		double thisAbsPayoffCoefficient = Math.abs(payoffMatrix[i][j]);
+		if (thisAbsPayoffCoefficient > maxAbsolutePayoffCoefficient) {
+		    maxAbsolutePayoffCoefficient = thisAbsPayoffCoefficient;
+		}
+	    }
 	}
-	else if (dimensions == 2) {
-	    updateNode2D(chooseNodeAtRandom2D());
+	assert maxAbsolutePayoffCoefficient > 0;
+	maxRate = degree * maxAbsolutePayoffCoefficient;
+	payoffVersion++;
+    }
+
+    // In 1D, the neighborhood of site i+1 is that of site i shifted by one, so each code follows from the
+    // previous one by sliding the window: i-r leaves it, i joins it, i+1 leaves it (it's the center now), and
+    // i+r+1 joins it. That makes the whole pass O(size) rather than O(size * range).
+    protected void initializeComposition1D() {
+	int code = 0;
+	for (int k=0; k<degree; k++) {
+	    code += compositionWeights[sites[neighborTable.getNeighbor(0, k)] & 0xFF];
+	}
+	composition[0] = code;
+	int r = interactionRange;
+	for (int i=0; i<size-1; i++) {
+	    code += compositionWeights[sites[i] & 0xFF] - compositionWeights[sites[i+1] & 0xFF]
+		- compositionWeights[sites[((i - r) % size + size) % size] & 0xFF]
+		+ compositionWeights[sites[(i + r+1) % size] & 0xFF];
+	    composition[i+1] = code;
+	}
+    }
+
+    // Adds (delta) to the composition codes of the (length) sites starting at (from) in the row starting at site
+    // (rowStart), wrapping around the row (in 1D, the ring). It works on contiguous runs, which the JIT can
+    // vectorize, rather than going through the neighbor table.
+    protected void addToCompositionRun(int rowStart, int from, int length, int delta) {
+	while (length > 0) {
+	    int run = Math.min(length, size - from);
+	    for (int i=rowStart+from; i<rowStart+from+run; i++) {
+		composition[i] += delta;
+	    }
+	    length -= run;
+	    from = 0;
 	}
     }
 
-    // 1D version updates the node based on which of the 8 update methods is used. Descriptions of each method
-    // are too long to include in this documentation.
-    public void updateNode1D(int node) {
-	if (dimensions != 1) {
-	    System.err.println("This version of updateNode() is valid only for 1 dimension. Cancelling...");
-	    return;
+    // Decodes how many neighbors play (strategy) from the composition code (code).
+    protected int getCompositionCount(int code, int strategy) {
+	if (strategy < numStrategies-1)
+	    return (code / compositionWeights[strategy]) % (degree + 1);
+	int count = degree;
+	for (int s=0; s<numStrategies-1; s++) {
+	    count -= (code / compositionWeights[s]) % (degree + 1);
 	}
-
-	switch(updateMethod) {
-	case 0:
-	    updateMethodZero1D(node);
-	    break;
-	case 1:
-	    updateMethodOne1D(node);
-	    break;
-	case 2:
-	    updateMethodTwo1D(node);
-	    break;
-	case 3:
-	    updateMethodThree1D(node);
-	    break;
-	case 4:
-	    updateMethodFour1D(node);
-	    break;
-	case 5:
-	    updateMethodFive1D(node);
-	    break;
-	case 6:
-	    updateMethodSix1D(node);
-	    break;
-	case 7:
-	    updateMethodSeven1D(node);
-	    break;
-	}
-
+	return count;
     }
 
-    // 2D version updates the node based on which of the 8 update methods is used. Descriptions of each method
-    // are too long to include in this documentation.
-    public void updateNode2D(Point node) {
-	if (dimensions != 2) {
-	    System.err.println("This version of updateNode() is valid only for 2 dimensions. Cancelling...");
-	    return;
+    // Returns how many of the neighbors of (node) play (strategy).
+    public int getNeighborCountOf(int node, int strategy) {
+	if (compositionWeights != null)
+	    return getCompositionCount(composition[node], strategy);
+	int count = 0;
+	for (int k=0; k<degree; k++) {
+	    if (getStrategyAt(getNeighborOf(node, k)) == strategy)
+		count++;
 	}
-
-	switch(updateMethod) {
-	case 0:
-	    updateMethodZero2D(node);
-	    break;
-	case 1:
-	    updateMethodOne2D(node);
-	    break;
-	case 2:
-	    updateMethodTwo2D(node);
-	    break;
-	case 3:
-	    updateMethodThree2D(node);
-	    break;
-	case 4:
-	    updateMethodFour2D(node);
-	    break;
-	case 5:
-	    updateMethodFive2D(node);
-	    break;
-	case 6:
-	    updateMethodSix2D(node);
-	    break;
-	case 7:
-	    updateMethodSeven2D(node);
-	    break;
-	}
-    }
-
-    // The "Payoff affecting birth and death" update method
-    public void updateMethodZero1D(int node) {
-
+	return count;
     }
 
-    public void updateMethodZero2D(Point node) {
-	double payoff = getPayoff2D(node);
-	// Negative payoff => death rate. If the node dies, we replace it with a copy of a random neighbor.
-	if (payoff < 0) {
-	    if (rand.nextDouble() <= (-payoff / getMaxRate())) {
-		Point neighbor = chooseNeighborAtRandom2D(node);
-		setStrategyAt2D(node, array[neighbor.x][neighbor.y]);
+    // Sums the payoff of (strategy) against each neighbor of (node). This is how payoffs are computed when
+    // there are too many strategies to tabulate them by composition.
+    protected double sumPayoffGivenStrategy(int node, int strategy) {
+	double[] row = payoffMatrix[strategy];
+	double payoff = 0;
+	if (neighbors != null) {
+	    for (int k=node*degree; k<(node+1)*degree; k++) {
+		payoff += row[sites[neighbors[k]] & 0xFF];
 	    }
 	}
-	// Positive payoff => birth rate. If the node gives birth, we replace a random neighbor with a copy of (node).
-	else if (payoff > 0) {
-	    if (rand.nextDouble() <= (payoff / getMaxRate())) {
-		Point neighbor = chooseNeighborAtRandom2D(node);
-		setStrategyAt2D(neighbor, array[node.x][node.y]);
+	else {
+	    for (int k=0; k<degree; k++) {
+		payoff += row[sites[neighborTable.getNeighbor(node, k)] & 0xFF];
 	    }
 	}
-	// TODO: What about zero??
-	// Zero payoff => 1/2 chance of dying, 1/2 chance of giving birth
-	//else if (payoff == 0)
-	//{
-	//// Dying
-	//if (rand.nextDouble() <= 0.5)
-	//{
-	//Point neighbor = chooseNeighborAtRandom2D(node);
-	//setStrategyAt2D(node, array[neighbor.x][neighbor.y]);
-	//}
-	//// Giving birth
-	//else
-	//{
-	//Point neighbor = chooseNeighborAtRandom2D(node);
-	//setStrategyAt2D(neighbor, array[node.x][node.y]);
-	//}
-	//}
-    }
-
-    // The "Birth-death updating (linear)" update method
-    public void updateMethodOne1D(int node) {
-
-    }
-
-    public void updateMethodOne2D(Point node) {
-	double payoff = getPayoff2D(node);
-
-	// Sites only give birth, and we can't have negative payoff, so we just copy the second half of update method 0.
-	if (rand.nextDouble() <= (payoff / getMaxRate())) {
-	    Point neighbor = chooseNeighborAtRandom2D(node);
-	    setStrategyAt2D(neighbor, array[node.x][node.y]);
-	}
-    }
-
-    // The "Death-birth process" update method. Due to Nowak. Technically, we calculate fitness = (1-w) + w*payoff,
-    // where w is the selection parameter. However, we will deal only with cases in which w = 1, so fitness = payoff.
-    public void updateMethodTwo1D(int node) {
-
+	return payoff;
     }
 
-    public void updateMethodTwo2D(Point node) {
-	// We keep track of the payoffs of each strategy.
-	double[] strategyPayoffs = new double[numStrategies];
-	double totalPayoff = 0;
-	// Fill the payoffs array by checking the payoff of each neighbor and adding it to the appropriate cell.
-	// Own payoff NOT included
-	for (int i=0; i<4; i++) {
-	    Point thisNeighbor = getNeighborOf2D(node, i);
-	    double thisPayoff = getPayoff2D(thisNeighbor);
-	    strategyPayoffs[array[thisNeighbor.x][thisNeighbor.y]] += thisPayoff;
-	    totalPayoff += thisPayoff;
-	}
-
-	// Now we calculate the probability that the newly-dead node is replaced by each of the (numStrategies) strategies.
-	double[] strategyProbabilities = new double[numStrategies];
-	for (int i=0; i<numStrategies; i++) {
-	    strategyProbabilities[i] = strategyPayoffs[i] / totalPayoff;
-	    assert strategyProbabilities[i] <= 1;
-	    assert strategyProbabilities[i] >= 0;
-	}
-
-	// Finally, we use a random double to determine which strategy we use.
-
-	double key = rand.nextDouble();
-	double[] sumToI = new double[numStrategies];
-
-	// We divide [0,1] into (numStrategies) intervals, with the ith interval of length
-	// sum(strategyProbabilities[0...i]) - sum(strategyProbabilities[0...i-1])
-	sumToI[0] = strategyProbabilities[0];
-	for(int i=1; i<numStrategies; i++) {
-	    sumToI[i] = sumToI[i-1] + strategyProbabilities[i];
-	}
-
-	// If the key is in the ith interval, strategy i replaces (node).
-	if (key > 0 && key <= sumToI[0])
-	    setStrategyAt2D(node, 0);
+    // Creates the update rule, or a fresh copy of the current one, since a rule's buffers are sized for
+    // the neighborhood and number of strategies, which may have just changed.
+    protected void initializeUpdateRule() {
+	if (rule == null)
+	    rule = UpdateRule.create(this, updateMethod);
 	else
-	    for(int i=1; i<numStrategies; i++) {
-		if (key > sumToI[i-1] && key <= sumToI[i])
-		    setStrategyAt2D(node, i);
-	    }
+	    rule = rule.createFor(this);
     }
 
-    // The "Imitation process" update method. This process is identical to case 2, but the payoff pool
-    // includes the payoff of (node).
-    public void updateMethodThree1D(int node) {
-
-    }
-
-    public void updateMethodThree2D(Point node) {
-	// We keep track of the payoffs of each strategy.
-	double[] strategyPayoffs = new double[numStrategies];
-	double totalPayoff = 0;
-	// Fill the payoffs array by checking the payoff of each neighbor and adding it to the appropriate cell.
-	// Own payoff NOT included
-	for (int i=0; i<4; i++) {
-	    Point thisNeighbor = getNeighborOf2D(node, i);
-	    double thisPayoff = getPayoff2D(thisNeighbor);
-	    strategyPayoffs[array[thisNeighbor.x][thisNeighbor.y]] += thisPayoff;
-	    totalPayoff += thisPayoff;
-	}
-
-	// Add the payoff of (node) to the pool.
-	double ownPayoff = getPayoff2D(node);
-	strategyPayoffs[array[node.x][node.y]] += ownPayoff;
-	totalPayoff += ownPayoff;
-
-	// Now we calculate the probability that the newly-dead node is replaced by each of the (numStrategies) strategies.
-	double[] strategyProbabilities = new double[numStrategies];
+    public void initializePayoffMatrix() {
+	payoffMatrix = new double[numStrategies][numStrategies];
 	for (int i=0; i<numStrategies; i++) {
-	    strategyProbabilities[i] = strategyPayoffs[i] / totalPayoff;
-	    assert strategyProbabilities[i] <= 1 && strategyProbabilities[i] >= 0;
-	}
-
-	// Finally, we use a random double to determine which strategy we use.
-
-	double key = rand.nextDouble();
-	double[] sumToI = new double[numStrategies];
-
-	// We divide [0,1] into (numStrategies) intervals, with the ith interval of length
-	// sum(strategyProbabilities[0...i]) - sum(strategyProbabilities[0...i-1])
-	sumToI[0] = strategyProbabilities[0];
-	for(int i=1; i<numStrategies; i++) {
-	    sumToI[i] = sumToI[i-1] + strategyProbabilities[i];
-	}
-
-	// If the key is in the ith interval, strategy i replaces (node).
-	if (key > 0 && key <= sumToI[0])
-	    setStrategyAt2D(node, 0);
-	else {
-	    for(int i=1; i<numStrategies; i++) {
-		if (key > sumToI[i-1] && key <= sumToI[i]) 
-		    setStrategyAt2D(node, i);
+	    for (int j=0; j<numStrategies; j++) {
+		payoffMatrix[i][j] = getDefaultPayoff(numStrategies, i, j);
 	    }
 	}
     }
 
-    public void updateMethodFour1D(int node) {
-
-    }
-
-    // The "Birth-death of the least fit" update method.
-    public void updateMethodFour2D(Point node) {
-	// We allocate an array to store the payoff of each neighbor, using the usual 
-	// clockwise-from-north indexing.
-	double[] neighborPayoffs = new double[4];
-	for (int i=0; i<neighborPayoffs.length; i++) {
-	    neighborPayoffs[i] = getPayoff2D(getNeighborOf2D(node, i));
-	}
-
-	// We find the minimum payoff
-	double minPayoff = Double.POSITIVE_INFINITY;
-	for (int i=0; i<neighborPayoffs.length; i++) {
-	    if (neighborPayoffs[i] < minPayoff) {
-		minPayoff = neighborPayoffs[i];
+    public void initializePayoffMatrix(double[][] payoffMatrix) {
+	this.payoffMatrix = new double[numStrategies][numStrategies];
+	if (numStrategies == payoffMatrix.length && numStrategies == payoffMatrix[0].length) {
+	    for (int i=0; i<numStrategies; i++) {
+		for (int j=0; j<numStrategies; j++) {
+		    this.payoffMatrix[i][j] = payoffMatrix[i][j];
+		}
 	    }
 	}
-
-	// We choose random directions until we get a node that has minimum payoff.
-	int directionToReplace = -1;
-	int i = 0;
-	while (true) {
-	    int key = rand.nextInt(neighborPayoffs.length);
-	    if (neighborPayoffs[key] == minPayoff) {
-		// Replace the strategy at the chosen neighbor with a copy of the strategy
-		// at (node)
-		directionToReplace = key;
-		Point pointToReplace = getNeighborOf2D(node, directionToReplace);
-		setStrategyAt2D(pointToReplace, array[node.x][node.y]);
-		return;
-	    }
-	    i++;
-	    //if (i > 50)
-	    //System.out.println("Somewhat infinite loop at Lattice.java line 584.");
+	else {
+	    System.err.println("Argument length is invalid... EXITING");
+	    System.exit(1);
 	}
     }
 
-    // The "Death-birth of the fittest" model
-    public void updateMethodFive1D(int node) {
-
+    // Creates the engine best suited to running this lattice with its current update method.
+    public SimulationEngine createEngine() {
+	if (KineticMonteCarloEngine.supports(updateMethod))
+	    return new KineticMonteCarloEngine(this);
+	if (BestResponseEngine.supports(updateMethod))
+	    return new BestResponseEngine(this);
+	return new RandomSequentialEngine(this);
     }
 
-    public void updateMethodFive2D(Point node) {
-	// We allocate an array to store the payoff of each neighbor, using the usual 
-	// clockwise-from-north indexing.
-	double[] neighborPayoffs = new double[4];
-	int[] neighborStrategies = new int[4];
-	for (int i=0; i<neighborPayoffs.length; i++) {
-	    Point thisNeighbor = getNeighborOf2D(node, i);
-	    neighborPayoffs[i] = getPayoff2D(thisNeighbor);
-	    neighborStrategies[i] = getStrategyAt2D(thisNeighbor);
-	}
-
-	// We find the maximum payoff
-	double maxPayoff = Double.NEGATIVE_INFINITY;
-	for (int i=0; i<neighborPayoffs.length; i++) {
-	    if (neighborPayoffs[i] > maxPayoff) {
-		maxPayoff = neighborPayoffs[i];
-	    }
-	}
-
-	// We choose random nodes until we get a node that has minimum payoff.
-	while (true) {
-	    int key = rand.nextInt(neighborPayoffs.length);
-	    if (neighborPayoffs[key] == maxPayoff) {
-		// Replace (node) with the chosen strategy.
-		setStrategyAt2D(node, neighborStrategies[key]);
-		return;
-	    }
-	}
+    // Creates an engine that runs this lattice on (threads) threads, if it's a 2D lattice of at least
+    // PARALLEL_MIN_SIZE sites a side with room for tiles of its neighborhood, and otherwise the engine
+    // createEngine() would. The parallel engine doesn't update in exactly random-sequential order (see
+    // ParallelTileEngine); call its shutdown() when done with it.
+    public SimulationEngine createParallelEngine(int threads) {
+	if (threads > 1 && dimensions == 2 && size >= Math.max(PARALLEL_MIN_SIZE, 2*ParallelTileEngine.MIN_TILE_SIZE*getNeighborhoodReach()))
+	    return new ParallelTileEngine(this, threads, ParallelTileEngine.DEFAULT_TILE_SIZE);
+	return createEngine();
     }
 
-    // The "Imitation of the fittest" model. It's the same as above, but instead of dying,
-    // the node may choose to "imitate itself" (i.e., not change).
-    public void updateMethodSix1D(int node) {
-
+    public void chooseAndUpdateNode() {
+	rule.update(chooseSiteAtRandom());
     }
 
-    public void updateMethodSix2D(Point node) {
-	// We allocate an array to store the payoff of each neighbor, using the usual 
-	// clockwise-from-north indexing.
-	double[] neighborPayoffs = new double[4];
-	int[] neighborStrategies = new int[4];
-	for (int i=0; i<neighborPayoffs.length; i++) {
-	    Point thisNeighbor = getNeighborOf2D(node, i);
-	    neighborPayoffs[i] = getPayoff2D(thisNeighbor);
-	    neighborStrategies[i] = getStrategyAt2D(thisNeighbor);
+    // Updates (node) with the current update method, in any dimension.
+    public void updateNode(int node) {
+	if (dimensions == 1) {
+	    updateNode1D(node);
 	}
-	// We also find the payoff of (node) 
-	double nodePayoff = getPayoff2D(node);
-
-	// We find the maximum payoff, first checking each of the neighbor payoffs,
-	// then moving to (node)'s payoff.
-	double maxPayoff = Double.NEGATIVE_INFINITY;
-	for (int i=0; i<neighborPayoffs.length; i++) {
-	    if (neighborPayoffs[i] > maxPayoff) {
-		maxPayoff = neighborPayoffs[i];
-	    }
+	else if (dimensions == 2) {
+	    updateNode2D(node);
 	}
-	if (nodePayoff > maxPayoff)
-	    maxPayoff = nodePayoff;
-
-	// Finally, we produce a random integer between 0 and (numStrategies) + 1.
-	// If the random integer coincides with a neighbor who has maximum payoff,
-	// we change the strategy at node to match the strategy at that neighbor; if
-	// it coincides with the node itself, we do nothing and return.
-	while (true) {
-	    int key = rand.nextInt(neighborPayoffs.length + 1);
-	    if (key < neighborPayoffs.length) {
-		if (neighborPayoffs[key] == maxPayoff) {
-		    // Replace (node) with the chosen strategy.
-		    setStrategyAt2D(node, neighborStrategies[key]);
-		    return;
-		}
-	    }
-	    else if (nodePayoff == maxPayoff)
-		return;
+	else {
+	    rule.update(node);
 	}
     }
 
-    // "Best Response Dynamics". Choose the best option among all possible payoffs.
-    public void updateMethodSeven1D(int node) {
-
-    }
-
-    public void updateMethodSeven2D(Point node) {
-	// We first figure out what the best payoff is.
-	double bestPayoff = Double.NEGATIVE_INFINITY;
-	for (int i=0; i<numStrategies; i++) {
-	    double thisPayoff = getPayoffGivenStrategy2D(node, i);
-	    if (thisPayoff > bestPayoff) {
-		bestPayoff = thisPayoff;
-	    }
-	}
-	// We then figure out how many strategies have the best payoff, and then
-	// choose one of those strategies uniformly at random.
-	int tiedStrategyCount = 0;
-	ArrayList<Integer> bestStrategies = new ArrayList<Integer>();
-	for (int i=0; i<numStrategies; i++) {
-	    if (getPayoffGivenStrategy2D(node, i) == bestPayoff) {
-		bestStrategies.add(i);
-		tiedStrategyCount++;
-	    }
+    // 1D version applies the update rule to (node). The rules work on any neighborhood, so in 1D the
+    // neighbors are the 2*(interactionRange) sites of the ring around (node).
+    public void updateNode1D(int node) {
+	if (dimensions != 1) {
+	    System.err.println("This version of updateNode() is valid only for 1 dimension. Cancelling...");
+	    return;
 	}
-	setStrategyAt2D(node, bestStrategies.get(rand.nextInt(tiedStrategyCount)));
+	rule.update(node);
     }
 
-    // Computes the maximum rate birth or death (necessary for update methods 0 and 1).
-    public double getMaxRate() {
-	double maxAbsolutePayoffCoefficient = Double.NEGATIVE_INFINITY;
-	for(int i=0; i<numStrategies; i++) {
-	    for(int j=0; j<numStrategies; j++) {
-		double thisAbsPayoffCoefficient = Math.abs(payoffMatrix[i][j]);
-		if (thisAbsPayoffCoefficient > maxAbsolutePayoffCoefficient) {
-		    maxAbsolutePayoffCoefficient = thisAbsPayoffCoefficient;
-		}
-	    }
+    // 2D version applies the update rule to (node).
+    public void updateNode2D(int node) {
+	if (dimensions != 2) {
+	    System.err.println("This version of updateNode() is valid only for 2 dimensions. Cancelling...");
+	    return;
 	}
-	assert maxAbsolutePayoffCoefficient > 0;
+	rule.update(node);
+    }
 
-	int numberOfNeighbors = -1;
+    public void updateNode2D(Point node) {
+	updateNode2D(getSiteAt(node.x, node.y));
+    }
 
-	if (dimensions == 1) {
-	    numberOfNeighbors = 2*interactionRange;
-	}
-	else if (dimensions == 2) {
-	    numberOfNeighbors = 4;// I'm just hardcoding this 4... it shouldn't come up very often.
-	}
+    // Computes the maximum rate birth or death (necessary for update methods 0 and 1). The value is
+    // tabulated along with the payoffs, since the update loops ask for it on every step.
+    public double getMaxRate() {
+	return maxRate;
+    }
 
-	assert numberOfNeighbors > 0;
-	return numberOfNeighbors * maxAbsolutePayoffCoefficient;
+    // Computes what the payoff of (node) would be if it had (strategy), in any dimension.
+    public double getPayoffGivenStrategy(int node, int strategy) {
+	if (compositionWeights == null)
+	    return sumPayoffGivenStrategy(node, strategy);
+	return payoffTable[strategy*numCompositions + composition[node]];
     }
 
     // Computes what the payoff of (node) would be if it had (strategy)
     public double getPayoffGivenStrategy1D(int node, int strategy) {
-	double payoff = 0;
 	if (dimensions != 1) {
 	    System.err.println("This version of getPayoff() does not work in 2D. RETURNING -1.");
 	    return -1;
 	}
 
 	// Get the payoff contribution from the interactionRange nodes west and east of node.
-	for (int i=-interactionRange; i<=interactionRange; i++) {
-	    if (i != 0)
-		payoff += payoffMatrix[strategy][array[getNeighborOf1D(node, 0, i)][0]];
-	}
-	return payoff;
+	return getPayoffGivenStrategy(node, strategy);
     }
 
-    public double getPayoffGivenStrategy2D(Point node, int strategy) {
-	double payoff = 0;
+    public double getPayoffGivenStrategy2D(int node, int strategy) {
+	// Get the payoff contribution from the neighbors of (node).
+	return getPayoffGivenStrategy(node, strategy);
+    }
 
+    public double getPayoffGivenStrategy2D(Point node, int strategy) {
 	if (dimensions != 2) {
 	    System.err.println("This verison of getPayoff() does not work in 1D. RETURNING -1.");
 	    return -1;
 	}
+	return getPayoffGivenStrategy(getSiteAt(node.x, node.y), strategy);
+    }
 
-	// Get the payoff contribution from the four nearest neighbors of (node).
-	for (int i=0; i<4; i++) {
-	    Point neighbor = getNeighborOf2D(node, i);
-	    payoff += payoffMatrix[strategy][array[neighbor.x][neighbor.y]];
-	}
-
-	return payoff;
+    // Returns the payoff of (node) as the sum of the contributions of each of its neighbors, in any dimension.
+    public double getPayoff(int node) {
+	if (compositionWeights == null)
+	    return sumPayoffGivenStrategy(node, sites[node] & 0xFF);
+	return payoffTable[(sites[node] & 0xFF)*numCompositions + composition[node]];
     }
 
     // 1D version returns the payoff of (node) as the sum of the contributions of its 2*(interactionRange) neighbors.
     public double getPayoff1D(int node) {
-	double payoff = 0;
 	if (dimensions != 1) {
 	    System.err.println("This version of getPayoff() does not work in 2D. RETURNING -1.");
 	    return -1;
 	}
+	return getPayoff(node);
+    }
 
-	// Get the payoff contribution from the interactionRange nodes west and east of node.
-	for (int i=-interactionRange; i<=interactionRange; i++) {
-	    if (i != 0)
-		payoff += payoffMatrix[array[node][0]][array[getNeighborOf1D(node, 0, i)][0]];
-	}
-
-	return payoff;
+    // 2D version returns the payoff of (node) as the sum of the contributions of its neighbors.
+    public double getPayoff2D(int node) {
+	return getPayoff(node);
     }
 
-    // 2D version returns the payoff of (node) as the sum of the contributions of its four nearest neighbors.
     public double getPayoff2D(Point node) {
-	double payoff = 0;
-
 	if (dimensions != 2) {
 	    System.err.println("This verison of getPayoff() does not work in 1D. RETURNING -1.");
 	    return -1;
 	}
+	return getPayoff(getSiteAt(node.x, node.y));
+    }
 
-	// Get the payoff contribution from the four nearest neighbors of (node).
-	for (int i=0; i<4; i++) {
-	    Point neighbor = getNeighborOf2D(node, i);
-	    payoff += payoffMatrix[array[node.x][node.y]][array[neighbor.x][neighbor.y]];
-	}
-	return payoff;
+    // Returns a neighbor of (node) chosen uniformly at random, in any dimension.
+    public int chooseNeighborAtRandom(int node) {
+	int k = rand.nextInt(degree);
+	return neighbors != null ? neighbors[node*degree + k] : neighborTable.getNeighbor(node, k);
     }
 
-    // 1D version makes a random int and chooses a corresponding neighbor of (node).
+    // 1D version chooses one of the 2*(interactionRange) neighbors of (node) uniformly at random.
     public int chooseNeighborAtRandom1D(int node) {
+	return chooseNeighborAtRandom(node);
+    }
 
-	int direction = rand.nextInt(2);// There are 2 possible directions in 1D
-	int distance = rand.nextInt(interactionRange) + 1;// The distance can only range from 1 to interactionRange
-	return getNeighborOf1D(node, direction, distance);
+    public int chooseNeighborAtRandom2D(int node) {
+	return chooseNeighborAtRandom(node);
     }
 
     public Point chooseNeighborAtRandom2D(Point node) {
+	return getPointAt(chooseNeighborAtRandom(getSiteAt(node.x, node.y)));
+    }
 
-	int direction = rand.nextInt(4);// There are 4 possible directions in 2D
-	return getNeighborOf2D(node, direction);
+    // Returns the (k)th neighbor of (node), in the order of the neighbor table, in any dimension.
+    public int getNeighborOf(int node, int k) {
+	return neighbors != null ? neighbors[node*degree + k] : neighborTable.getNeighbor(node, k);
     }
 
     // The 1D version returns the node distance away from (node) in direction (direction).
@@ -731,11 +680,20 @@ public class Lattice {
 	    System.err.println("This version of getNieghborOf() does not work in 2D. RETURNING -1");
 	    return -1;
 	}
+	// Neighbors within the interaction range come straight from the table.
+	if (distance >= 1 && distance <= interactionRange) {
+	    switch(direction) {
+	    case 0:
+		return getNeighborOf(node, distance-1);
+	    case 1:
+		return getNeighborOf(node, interactionRange + distance-1);
+	    }
+	}
 	switch(direction) {
 	case 0:
-	    return (node - distance + size) % size;
+	    return ((node - distance) % size + size) % size;
 	case 1:
-	    return (node + distance + size) % size;
+	    return ((node + distance) % size + size) % size;
 	}
 	System.err.println("The mode must be invalid. RETURNING -1.");
 	return -1;
@@ -743,31 +701,66 @@ public class Lattice {
 
     // The 2D version returns the nearest neighbor of (node) in direction (direction).
     // (direction) = 0 => north, and we go clockwise from there.
+    public int getNeighborOf2D(int node, int direction) {
+	return getNeighborOf(node, direction);
+    }
+
     public Point getNeighborOf2D(Point node, int direction) {
 	if (dimensions != 2) {
 	    System.err.println("This verison of getNieghborOf() does not work in 1D. RETURNING NULL.");
 	    return null;
 	}
-	Point result = null;
-	switch(direction) {
-	case 0:
-	    result = (new Point(node.x, (node.y - 1 + size) % size));
-	    break;
-	case 1:
-	    result = (new Point((node.x + 1 + size) % size, node.y));
-	    break;
-	case 2:
-	    result = (new Point(node.x, (node.y + 1 + size) % size));
-	    break;
-	case 3:
-	    result = (new Point((node.x - 1 + size) % size, node.y));
-	    break;
-	default:
-	    break;
+	return getPointAt(getNeighborOf(getSiteAt(node.x, node.y), direction));
+    }
+
+    // Builds the neighbor table for the current dimensions, neighborhood and interaction range. This is the only
+    // place the lattice's periodic boundary is computed; every update method looks neighbors up in the table.
+    protected void initializeNeighborTable() {
+	if (dimensions == 1) {
+	    neighborTable = NeighborTable.ring1D(size, interactionRange);
+	}
+	else if (neighborhood == NEIGHBORHOOD_CUSTOM) {
+	    neighborTable = new NeighborTable(size, dimensions, customOffsets);
+	}
+	else if (dimensions == 3) {
+	    if (neighborhood == NEIGHBORHOOD_MOORE)
+		neighborTable = NeighborTable.moore3D(size, interactionRange);
+	    else
+		neighborTable = NeighborTable.vonNeumann3D(size, interactionRange);
+	}
+	else if (neighborhood == NEIGHBORHOOD_MOORE) {
+	    neighborTable = NeighborTable.moore2D(size, interactionRange);
+	}
+	else {
+	    neighborTable = NeighborTable.vonNeumann2D(size, interactionRange);
 	}
+	neighbors = neighborTable.getTable();
+	degree = neighborTable.getDegree();
+	// A change touches (degree) compositions either way; runs pay off once they average a few sites long.
+	compositionRuns = null;
+	if (dimensions >= 2 && (neighbors == null || degree >= 4*neighborTable.getNumRuns()))
+	    compositionRuns = neighborTable.getRuns();
+    }
+
+    // Returns the index of the site at (x, y). In 1D, (y) is always 0.
+    public int getSiteAt(int x, int y) {
+	return y*size + x;
+    }
+
+    // Returns the index of the site at (x, y, z) of a 3D lattice. Each plane is laid out like a 2D lattice,
+    // so the strides along x, y and z are 1, (size) and (size)^2.
+    public int getSiteAt(int x, int y, int z) {
+	return (z*size + y)*size + x;
+    }
 
-	//System.out.println(direction + " " + -(node.x-result.x) + "," + -(node.y-result.y));
-	return result;
+    // Returns the coordinates of (site) as a Point; only the Point-based adapters need this.
+    public Point getPointAt(int site) {
+	return new Point(site % size, site / size);
+    }
+
+    // Returns a randomly selected site index between 0 and (numSites)-1, in any dimension.
+    protected int chooseSiteAtRandom() {
+	return rand.nextInt(numSites);
     }
 
     // 1D version returns a randomly selected int between 0 and size-1.
@@ -787,18 +780,7 @@ public class Lattice {
 	    return null;
 	}
 
-	return new Point(rand.nextInt(size), rand.nextInt(size));
-    }
-
-    // 1D version paints a single row of cells based on the stored BufferedImage at the location (yLocation).
-    // (size) must be passed to the method, and will be a variable of the drawing environment (the driver JApplet).
-    public void draw1D(Graphics g, int yLocation, int size) {
-	g.drawImage(image, 0, yLocation, size, 1, Color.white, null);
-    }
-
-    // 2D version paints the whole grid
-    public void draw2D(Graphics g, int size) {
-	g.drawImage(image, 0, 0, size, size, Color.white, null);
+	return getPointAt(chooseSiteAtRandom());
     }
 
     // Returns false and prints an error-type-dependent message if there is an error; otherwise, returns true.
@@ -815,14 +797,8 @@ public class Lattice {
 	case -5:
 	    System.err.println("Initial proportions matrix improperly initialized.");
 	    return false;
-	case -4:
-	    System.err.println("Interaction range > 0 in 2 dimensions.");
-	    return false;
-	case -3:
-	    System.err.println("Array is 1 dimensional in 2 dimensions.");
-	    return false;
-	case -2:
-	    System.err.println("Array is 2 dimensional in 1 dimension.");
+	case -7:
+	    System.err.println("Custom neighborhoods must be symmetric.");
 	    return false;
 	case -1:
 	    System.err.println("Array is incorrect size.");
@@ -834,14 +810,17 @@ public class Lattice {
 	    System.err.println("Payoff matrix is null or not square.");
 	    return false;
 	case 3:
-	    System.err.println("Dimensions must be 1 or 2.");
+	    System.err.println("Dimensions must be 1, 2 or 3.");
 	    return false;
 	case 4:
-	    System.err.println("Number of strategies must be 2 or 3.");
+	    System.err.println("Number of strategies must be between 2 and " + MAX_STRATEGIES + ".");
 	    return false;
 	case 5:
 	    System.err.println("Update method must be between 0 and 7.");
 	    return false;
+	case 6:
+	    System.err.println("Packed lattices must have 2 strategies, 2 dimensions and the four nearest neighbors.");
+	    return false;
 	}
 	return true;
     }
@@ -850,7 +829,7 @@ public class Lattice {
     // on which error is finds.
     protected int getModeErrors() {
 	// array requirements
-	if (array == null)
+	if (!isAllocated())
 	    return 1;
 
 	// payoffMatrix requirements
@@ -860,11 +839,11 @@ public class Lattice {
 	    return 2;
 
 	// dimensions requirements
-	if (dimensions != 1 && dimensions != 2)
+	if (dimensions < 1 || dimensions > 3)
 	    return 3;
 
 	// numStrategies requirements
-	if (numStrategies != 2 && numStrategies != 3)
+	if (numStrategies < 2 || numStrategies > MAX_STRATEGIES)
 	    return 4;
 
 	// updateMethod requirements
@@ -872,14 +851,14 @@ public class Lattice {
 	    return 5;
 
 	// Interdependencies
-	if (array.length != size)
+	if (dimensions == 1 && numSites != size)
 	    return -1;
-	if (dimensions == 1 && array[0].length > 1)
-	    return -2;
-	if (dimensions == 2 && array[0].length <= 0)
-	    return -3;
-	if (dimensions == 2 && interactionRange > 1)
-	    return -4;
+	if (dimensions == 2 && numSites != size*size)
+	    return -1;
+	if (dimensions == 3 && numSites != size*size*size)
+	    return -1;
+	if (dimensions >= 2 && neighborTable != null && !neighborTable.isSymmetric())
+	    return -7;
 	if (initProportionMasks.length != numStrategies)
 	    return -5;
 	if (payoffMatrix.length != numStrategies)
@@ -895,66 +874,14 @@ public class Lattice {
 	return 0;
     }
 
-    // This method creates a double[] that can be used to define a raster.
-    // This method is unnecessary for two strategies, as we can simply use
-    // the instance variable (array) to initialize/change a raster.
-    public double[] makeRasterArray() {
-	if (!checkMode()) {
-	    System.err.println("Mode is invalid. Cannot make raster array. RETURNING NULL.");
-	    return null;
-	}
-
-	double result[] = null;
-
-	// IN 1 DIMENSION
-	if (dimensions == 1) {
-	    if (numStrategies == 2) {
-		result = new double[size];
-		for (int i=0; i<result.length; i++) {
-		    result[i] = array[i][0];
-		}
-	    }
-	    // R, G, and B values are necessary, so (result) must be length 3*(size).
-	    else if (numStrategies > 2) {
-		result = new double[3*size];
-		// Outer for-loop goes through each node (adds 3 for R, G, B).
-		for (int i=0; i<result.length; i += 3) {
-		    // Inner for-loop goes over the three colors for each node (3 for R, G, B).
-		    for (int j=0; j<3; j++) {
-			result[i] = STRATEGY_COLORS[array[i/3][0]].getRed();
-			result[i+1] = STRATEGY_COLORS[array[i/3][0]].getGreen();
-			result[i+2] = STRATEGY_COLORS[array[i/3][0]].getBlue();
-		    }
-		}
-	    }
-	}
+    // Returns true once the sites have been allocated. Subclasses that store the sites differently say so here.
+    protected boolean isAllocated() {
+	return sites != null;
+    }
 
-	// IN 2 DIMENSIONS 
-	else if (dimensions == 2) {
-	    if (numStrategies == 2) {
-		result = new double[size*size];
-		for (int i=0; i<array.length; i++) {
-		    for (int j=0; j<array[0].length; j++) {
-			result[size*i + j] = array[i][j];
-		    }
-		}
-	    }
-	    else if (numStrategies > 2) {
-		// R, G, and B values are necessary, so (result) must be length 3*(size)*(size).
-		result = new double[3*size*size];
-
-		// Outer for-loop goes through each node (adds 3 for R, G, B).
-		for (int i=0; i<result.length; i += 3) {
-		    // Inner for-loop goes over the three colors for each node (3 for R, G, B).
-		    for (int j=0; j<3; j++) {
-			result[i] = STRATEGY_COLORS[array[(i/3)/size][(i/3)%size]].getRed();
-			result[i+1] = STRATEGY_COLORS[array[(i/3)/size][(i/3)%size]].getGreen();
-			result[i+2] = STRATEGY_COLORS[array[(i/3)/size][(i/3)%size]].getBlue();
-		    }
-		}
-	    }
-	}
-	return result;
+    // Returns the strategy at (site), in any dimension.
+    public int getStrategyAt(int site) {
+	return sites[site] & 0xFF;
     }
 
     public int getStrategyAt1D(int node) {
@@ -962,7 +889,7 @@ public class Lattice {
 	    System.err.println("This verion of getStrategyAt() is only valid in 1D. RETURNING -1.");
 	    return -1;
 	}
-	return array[node][0];
+	return getStrategyAt(node);
     }
 
     public int getStrategyAt2D(Point node) {
@@ -970,7 +897,47 @@ public class Lattice {
 	    System.err.println("This verion of getStrategyAt() is only valid in 2D. RETURNING -1.");
 	    return -1;
 	}
-	return array[node.x][node.y];
+	return getStrategyAt(getSiteAt(node.x, node.y));
+    }
+
+    // Sets the strategy at (site), in any dimension, keeping the strategy counts and the neighborhood
+    // compositions in step with it. Nothing is drawn here; see LatticeRenderer.
+    public void setStrategyAt(int site, int strategy) {
+	int oldStrategy = sites[site] & 0xFF;
+	if (strategy == oldStrategy)
+	    return;
+	// The pairs (site) forms with neighbors playing (oldStrategy) become discordant, and those with neighbors
+	// playing (strategy) concordant.
+	discordantEdges += getNeighborCountOf(site, oldStrategy) - getNeighborCountOf(site, strategy);
+
+	// We decrement the strategy count for the strategy at the node being replaced, then
+	// increment the strategy count for the strategy that's doing the replacing.
+	strategyCounts[oldStrategy]--;
+	sites[site] = (byte) strategy;
+	strategyCounts[strategy]++;
+
+	// (site) is a neighbor of each of its neighbors, so each of their compositions changes by the same amount.
+	if (compositionWeights == null)
+	    return;
+	int delta = compositionWeights[strategy] - compositionWeights[oldStrategy];
+	if (delta != 0 && dimensions == 1) {
+	    // In 1D the neighbors are the two runs of (interactionRange) sites on either side.
+	    addToCompositionRun(0, ((site - interactionRange) % size + size) % size, interactionRange, delta);
+	    addToCompositionRun(0, site+1 == size ? 0 : site+1, interactionRange, delta);
+	}
+	else if (delta != 0 && compositionRuns != null) {
+	    int x = site % size;
+	    int row = site / size;
+	    for (int r=0; r<compositionRuns.length; r+=NeighborTable.RUN_FIELDS) {
+		int from = ((x + compositionRuns[r+2]) % size + size) % size;
+		addToCompositionRun(getRunRowStart(row % size, row / size, r), from, compositionRuns[r+3], delta);
+	    }
+	}
+	else if (delta != 0) {
+	    for (int k=site*degree; k<(site+1)*degree; k++) {
+		composition[neighbors[k]] += delta;
+	    }
+	}
     }
 
     public void setStrategyAt1D(int node, int strategy) {
@@ -982,50 +949,22 @@ public class Lattice {
 	    System.err.println("This verion of setStrategyAt() is only valid in 1D. EXITING.");
 	    System.exit(1);
 	}
-
-	// We decrement the strategy count for the strategy at the node being replaced, then
-	// increment the strategy count for the strategy that's doing the replacing.
-	strategyCounts[array[node][0]]--;
-	array[node][0] = strategy;
-	strategyCounts[strategy]++;
-	WritableRaster raster = image.getRaster();
-	if (numStrategies == 2) {
-	    double[] changedPoint = {strategy};
-	    raster.setPixel(node, 0, changedPoint);
-	}
-	if (numStrategies == 3) {
-	    double[] changedPoint = {STRATEGY_COLORS[strategy].getRed(),
-				     STRATEGY_COLORS[strategy].getGreen(),
-				     STRATEGY_COLORS[strategy].getBlue()};
-	    raster.setPixel(node, 0, changedPoint);
-	}
+	setStrategyAt(node, strategy);
     }
 
-    public void setStrategyAt2D(Point node, int strategy) {
+    public void setStrategyAt2D(int node, int strategy) {
 	if (strategy < 0 || strategy > numStrategies-1) {
 	    System.err.println("Attempt to set node to invalid strategy. EXITING.");
 	}
+	setStrategyAt(node, strategy);
+    }
+
+    public void setStrategyAt2D(Point node, int strategy) {
 	if (dimensions != 2) {
 	    System.err.println("This verion of setStrategyAt() is only valid in 2D. EXITING.");
 	    System.exit(1);
 	}
-
-	// We decrement the strategy count for the strategy at the node being replaced, then
-	// increment the strategy count for the strategy that's doing the replacing.
-	strategyCounts[array[node.x][node.y]]--;
-	array[node.x][node.y] = strategy;
-	strategyCounts[strategy]++;
-	WritableRaster raster = image.getRaster();
-	if (numStrategies == 2) {
-	    double[] changedPoint = {strategy};
-	    raster.setPixel(node.x, node.y, changedPoint);
-	}
-	else if (numStrategies == 3) {
-	    double[] changedPoint = {STRATEGY_COLORS[strategy].getRed(), 
-				     STRATEGY_COLORS[strategy].getGreen(),
-				     STRATEGY_COLORS[strategy].getBlue()};
-	    raster.setPixel(node.x, node.y, changedPoint);
-	}
+	setStrategyAt2D(getSiteAt(node.x, node.y), strategy);
     }
 
     public double getPayoffCoefficient(int i, int j) {
@@ -1034,6 +973,8 @@ public class Lattice {
 
     public void setPayoffCoefficient(double payoff, int i, int j) {
 	payoffMatrix[i][j] = payoff;
+	if (isAllocated())
+	    initializePayoffTable();
     }
 
     public double[][] getPayoffMatrix() {
@@ -1042,14 +983,8 @@ public class Lattice {
 
     public void setPayoffMatrix(double[][] payoffMatrix) {
 	this.payoffMatrix = payoffMatrix;
-    }
-
-    public BufferedImage getImage() {
-	return image;
-    }
-
-    public void setImage(BufferedImage image) {
-	this.image = image;
+	if (isAllocated())
+	    initializePayoffTable();
     }
 
     public int getSize() {
@@ -1060,6 +995,31 @@ public class Lattice {
 	this.size = size;
     }
 
+    public long getSeed() {
+	return rand.getSeed();
+    }
+
+    public RandomSource getRandomSource() {
+	return rand;
+    }
+
+    // Replaces the generator, e.g. with a different kind of generator or one restored from saved state.
+    public void setRandomSource(RandomSource rand) {
+	this.rand = rand;
+    }
+
+    public int getNumSites() {
+	return numSites;
+    }
+
+    public int getDegree() {
+	return degree;
+    }
+
+    public int getPayoffVersion() {
+	return payoffVersion;
+    }
+
     public int getDimensions() {
 	return dimensions;
     }
@@ -1073,42 +1033,26 @@ public class Lattice {
 	return numStrategies;
     }
 
+    // Changes the number of strategies, keeping the payoffs and initial proportions of the strategies that
+    // remain, and giving any new ones the defaults.
     public void setNumStrategies(int numStrategies) {
 	if (this.numStrategies != numStrategies) {
-	    // Changing number of strategies from 2 to 3
-	    if (this.numStrategies == 2) {
-		double[][] dummyPayoffMatrix = new double[numStrategies][numStrategies];
-		double[] dummyInitProportionMasks = new double[numStrategies];
-		for (int i=0; i<numStrategies; i++) {
-		    if (i<this.numStrategies)
-			dummyInitProportionMasks[i] = this.initProportionMasks[i];
-		    else
-			dummyInitProportionMasks[i] = DEFAULT_3STRATEGY_INIT_PROPORTION_MASKS[i];
-		    for (int j=0; j<numStrategies; j++) {
-			if (i<this.numStrategies && j<this.numStrategies) {
-			    dummyPayoffMatrix[i][j] = this.payoffMatrix[i][j];
-			}
-			else {
-			    dummyPayoffMatrix[i][j] = DEFAULT_3STRATEGY_PAYOFF_MATRIX[i][j];
-			}
-		    }
-		}
-		this.numStrategies = numStrategies;
-		initializeLattice(dummyInitProportionMasks, dummyPayoffMatrix);
-	    }
-	    // Changing number of strategies from 3 to 2
-	    else if (this.numStrategies == 3) {
-		double[][] dummyPayoffMatrix = new double[numStrategies][numStrategies];
-		double[] dummyInitProportionMasks = new double[numStrategies];
-		for (int i=0; i<numStrategies; i++) {
+	    double[][] dummyPayoffMatrix = new double[numStrategies][numStrategies];
+	    double[] dummyInitProportionMasks = new double[numStrategies];
+	    for (int i=0; i<numStrategies; i++) {
+		if (i<this.numStrategies)
 		    dummyInitProportionMasks[i] = this.initProportionMasks[i];
-		    for (int j=0; j<numStrategies; j++) {
+		else
+		    dummyInitProportionMasks[i] = getDefaultInitProportionMask(numStrategies, i);
+		for (int j=0; j<numStrategies; j++) {
+		    if (i<this.numStrategies && j<this.numStrategies)
 			dummyPayoffMatrix[i][j] = this.payoffMatrix[i][j];
-		    }
+		    else
+			dummyPayoffMatrix[i][j] = getDefaultPayoff(numStrategies, i, j);
 		}
-		this.numStrategies = numStrategies;
-		initializeLattice(dummyInitProportionMasks, dummyPayoffMatrix);
 	    }
+	    this.numStrategies = numStrategies;
+	    initializeLattice(dummyInitProportionMasks, dummyPayoffMatrix);
 	}
     }
 
@@ -1118,6 +1062,19 @@ public class Lattice {
 
     public void setUpdateMethod(int updateMethod) {
 	this.updateMethod = updateMethod;
+	if (isAllocated())
+	    rule = UpdateRule.create(this, updateMethod);
+    }
+
+    public UpdateRule getUpdateRule() {
+	return rule;
+    }
+
+    // Installs a rule of the caller's own, in place of the one for the update method. Engines that
+    // special-case an update method (see createEngine()) go by getUpdateMethod(), so set that to match, or
+    // to a method they don't special-case.
+    public void setUpdateRule(UpdateRule rule) {
+	this.rule = rule;
     }
 
     public int getInteractionRange() {
@@ -1126,17 +1083,56 @@ public class Lattice {
 
     public void setInteractionRange(int interactionRange) {
 	this.interactionRange = interactionRange;
+	if (isAllocated())
+	    reinitializeNeighborhood();
+    }
+
+    public int getNeighborhood() {
+	return neighborhood;
+    }
+
+    // Chooses the 2D or 3D neighborhood, NEIGHBORHOOD_VON_NEUMANN or NEIGHBORHOOD_MOORE; its size is the
+    // interaction range.
+    public void setNeighborhood(int neighborhood) {
+	this.neighborhood = neighborhood;
+	if (isAllocated())
+	    reinitializeNeighborhood();
+    }
+
+    // Uses the neighborhood given by (offsets), each {dx, dy} in 2D or {dx, dy, dz} in 3D. Every offset's opposite must also be included.
+    public void setNeighborhood(int[][] offsets) {
+	neighborhood = NEIGHBORHOOD_CUSTOM;
+	customOffsets = offsets;
+	if (isAllocated())
+	    reinitializeNeighborhood();
+    }
+
+    // Rebuilds everything that depends on the neighborhood, keeping the strategies.
+    protected void reinitializeNeighborhood() {
+	initializeNeighborTable();
+	initializeUpdateRule();
+	initializeComposition();
+	initializePayoffTable();
+	initializeDiscordantEdges();
+    }
+
+    // Returns the largest distance along an axis between a site and one of its neighbors.
+    public int getNeighborhoodReach() {
+	return neighborTable != null ? neighborTable.getReach() : 1;
     }
 
     public double getProportionOf(int strategy) {
-	if (dimensions == 1)
-	    return (double) strategyCounts[strategy] / (double) size;
-	else if (dimensions == 2)
-	    return (double) strategyCounts[strategy] / (double) (size*size);
+	return (double) strategyCounts[strategy] / (double) numSites;
+    }
 
-	System.err.println("Somehow, you lost track of dimensions, and it's neither 1 nor 2... RETURNING -1.");
-	return -1;
+    public long getDiscordantEdges() {
+	return discordantEdges;
+    }
 
+    // Returns the fraction of neighbor pairs whose sites play different strategies: 0 when the lattice is
+    // uniform, and about 1 - sum of the squared proportions when the strategies are well mixed.
+    public double getInterfaceDensity() {
+	return (double) discordantEdges / ((double) numSites * degree / 2);
     }
 
     public double getInitProportionOf(int strategy) {
@@ -1171,7 +1167,15 @@ public class Lattice {
 	this.initProportionMasks = initProportionMasks;
     }
 
+    public static Color getStrategyColor(int strategy) {
+	if (strategy < STRATEGY_COLORS.length)
+	    return STRATEGY_COLORS[strategy];
+	return Color.getHSBColor((strategy * GOLDEN_RATIO_CONJUGATE) % 1, 0.75f, 0.95f);
+    }
+
     public static String getStrategyColorName(int strategy) {
-	return STRATEGY_COLOR_NAMES[strategy];
+	if (strategy < STRATEGY_COLOR_NAMES.length)
+	    return STRATEGY_COLOR_NAMES[strategy];
+	return "Strategy " + strategy;
     }
 }
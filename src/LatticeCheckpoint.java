@@ -0,0 +1,347 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// Saves a running simulation (a lattice and the engine running it) to a binary file, and restores it, so that a
+// long run survives the process that started it. The restored run continues bit for bit as the saved one does:
+// the file holds everything a step depends on, including the state of every random number generator.
+//
+// The format, big-endian throughout, is
+//   MAGIC, VERSION,
+//   the kind of lattice, size, dimensions, number of strategies, interaction range, neighborhood and update
+//   method (ints), and for a custom neighborhood the number of offsets and their coordinates (ints),
+//   the initial proportion masks and the payoff matrix, row by row (doubles),
+//   the generator's type (a length and ASCII characters), seed, and state (a length and longs),
+//   the kind of engine and its state, as returned by SimulationEngine.getState() (a length and longs),
+//   the number of bits per site, and the sites in order, packed that many bits each, lowest bits first,
+//   MAGIC again, so a truncated file is noticed.
+// A two-strategy lattice takes one bit per site, so even a 46340 x 46340 lattice makes a file of 270 MB.
+//
+// Everything is streamed through one small direct buffer, straight from the lattice's accessors to the file's
+// channel and back, without a copy of the lattice in between. A checkpoint is written to a temporary file next
+// to the target and then renamed over it, so a crash while writing leaves the previous checkpoint intact.
+public class LatticeCheckpoint {
+    public static final int MAGIC = 0x45475443;
+    public static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int LATTICE = 0;
+    private static final int PACKED_LATTICE = 1;
+    private static final int OFF_HEAP_LATTICE = 2;
+
+    private static final int RANDOM_SEQUENTIAL_ENGINE = 0;
+    private static final int KINETIC_MONTE_CARLO_ENGINE = 1;
+    private static final int BEST_RESPONSE_ENGINE = 2;
+    private static final int PARALLEL_TILE_ENGINE = 3;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+
+    private LatticeCheckpoint(FileChannel channel) {
+	this.channel = channel;
+	buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    // Saves (engine) and its lattice to (file), replacing it if it exists. The engine must not be stepped
+    // meanwhile.
+    public static void write(File file, SimulationEngine engine) throws IOException {
+	File temp = new File(file.getPath() + ".tmp");
+	FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+	try {
+	    LatticeCheckpoint checkpoint = new LatticeCheckpoint(channel);
+	    checkpoint.writeEngine(engine);
+	    checkpoint.flush();
+	    channel.force(true);
+	} finally {
+	    channel.close();
+	}
+	Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Restores the engine saved in (file), with a new lattice of the kind that was saved. An off-heap lattice
+    // comes back in temporary files.
+    public static SimulationEngine read(File file) throws IOException {
+	FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	try {
+	    LatticeCheckpoint checkpoint = new LatticeCheckpoint(channel);
+	    checkpoint.buffer.limit(0);
+	    return checkpoint.readEngine();
+	} finally {
+	    channel.close();
+	}
+    }
+
+    private void writeEngine(SimulationEngine engine) throws IOException {
+	// The engine goes first: getting its state may draw from the lattice's generator.
+	long[] engineState = engine.getState();
+	Lattice lattice = engine.getLattice();
+	int numStrategies = lattice.getNumStrategies();
+	putInt(MAGIC);
+	putInt(VERSION);
+
+	putInt(getLatticeKind(lattice));
+	putInt(lattice.getSize());
+	putInt(lattice.getDimensions());
+	putInt(numStrategies);
+	putInt(lattice.getInteractionRange());
+	putInt(lattice.getNeighborhood());
+	putInt(lattice.getUpdateMethod());
+	if (lattice.getNeighborhood() == Lattice.NEIGHBORHOOD_CUSTOM) {
+	    putInt(lattice.customOffsets.length);
+	    for (int k=0; k<lattice.customOffsets.length; k++) {
+		for (int d=0; d<lattice.getDimensions(); d++) {
+		    putInt(lattice.customOffsets[k][d]);
+		}
+	    }
+	}
+	for (int i=0; i<numStrategies; i++) {
+	    putDouble(lattice.getInitProportionMaskOf(i));
+	}
+	for (int i=0; i<numStrategies; i++) {
+	    for (int j=0; j<numStrategies; j++) {
+		putDouble(lattice.getPayoffCoefficient(i, j));
+	    }
+	}
+
+	RandomSource rand = lattice.getRandomSource();
+	String type = rand.getType();
+	putInt(type.length());
+	for (int i=0; i<type.length(); i++) {
+	    putByte((byte) type.charAt(i));
+	}
+	putLong(rand.getSeed());
+	putLongs(rand.getState());
+
+	putInt(getEngineKind(engine));
+	putLongs(engineState);
+
+	// Each site is written as (bits) bits into (pending), and whole bytes are moved out as they fill up.
+	int bits = getBitsPerSite(numStrategies);
+	putInt(bits);
+	long pending = 0;
+	int pendingBits = 0;
+	for (int site=0; site<lattice.getNumSites(); site++) {
+	    pending |= (long) lattice.getStrategyAt(site) << pendingBits;
+	    pendingBits += bits;
+	    while (pendingBits >= 8) {
+		putByte((byte) pending);
+		pending >>>= 8;
+		pendingBits -= 8;
+	    }
+	}
+	if (pendingBits > 0)
+	    putByte((byte) pending);
+	putInt(MAGIC);
+    }
+
+    private SimulationEngine readEngine() throws IOException {
+	if (getInt() != MAGIC)
+	    throw new IOException("Not a lattice checkpoint");
+	int version = getInt();
+	if (version != VERSION)
+	    throw new IOException("Unsupported checkpoint version " + version);
+
+	int latticeKind = getInt();
+	int size = getInt();
+	int dimensions = getInt();
+	int numStrategies = getInt();
+	int interactionRange = getInt();
+	int neighborhood = getInt();
+	int updateMethod = getInt();
+	if (numStrategies < 2 || numStrategies > Lattice.MAX_STRATEGIES || dimensions < 1 || dimensions > 3)
+	    throw new IOException("Corrupt checkpoint");
+	int[][] customOffsets = null;
+	if (neighborhood == Lattice.NEIGHBORHOOD_CUSTOM) {
+	    customOffsets = new int[getInt()][dimensions];
+	    for (int k=0; k<customOffsets.length; k++) {
+		for (int d=0; d<dimensions; d++) {
+		    customOffsets[k][d] = getInt();
+		}
+	    }
+	}
+	double[] initProportionMasks = new double[numStrategies];
+	for (int i=0; i<numStrategies; i++) {
+	    initProportionMasks[i] = getDouble();
+	}
+	double[][] payoffMatrix = new double[numStrategies][numStrategies];
+	for (int i=0; i<numStrategies; i++) {
+	    for (int j=0; j<numStrategies; j++) {
+		payoffMatrix[i][j] = getDouble();
+	    }
+	}
+
+	char[] type = new char[getInt()];
+	for (int i=0; i<type.length; i++) {
+	    type[i] = (char) getByte();
+	}
+	long seed = getLong();
+	long[] randomState = getLongs();
+	int engineKind = getInt();
+	long[] engineState = getLongs();
+
+	// The lattice draws a random configuration as usual, which the saved sites then replace, one change at a
+	// time, so the counts and compositions are kept up to date along the way.
+	RandomSource rand = RandomSource.create(new String(type), seed);
+	Lattice lattice;
+	if (latticeKind == PACKED_LATTICE)
+	    lattice = new PackedLattice(size, initProportionMasks, updateMethod, payoffMatrix, rand);
+	else if (latticeKind == OFF_HEAP_LATTICE)
+	    lattice = new OffHeapLattice(size, dimensions, numStrategies, interactionRange, initProportionMasks, updateMethod, payoffMatrix, rand, null);
+	else
+	    lattice = new Lattice(size, dimensions, numStrategies, interactionRange, initProportionMasks, updateMethod, payoffMatrix, rand);
+	if (neighborhood == Lattice.NEIGHBORHOOD_CUSTOM)
+	    lattice.setNeighborhood(customOffsets);
+	else if (neighborhood != lattice.getNeighborhood())
+	    lattice.setNeighborhood(neighborhood);
+
+	int bits = getInt();
+	if (bits != getBitsPerSite(numStrategies))
+	    throw new IOException("Corrupt checkpoint");
+	long pending = 0;
+	int pendingBits = 0;
+	int mask = (1 << bits) - 1;
+	for (int site=0; site<lattice.getNumSites(); site++) {
+	    while (pendingBits < bits) {
+		pending |= (long) (getByte() & 0xFF) << pendingBits;
+		pendingBits += 8;
+	    }
+	    int strategy = (int) pending & mask;
+	    pending >>>= bits;
+	    pendingBits -= bits;
+	    if (strategy >= numStrategies)
+		throw new IOException("Corrupt checkpoint");
+	    if (lattice.getStrategyAt(site) != strategy)
+		lattice.setStrategyAt(site, strategy);
+	}
+	if (getInt() != MAGIC)
+	    throw new IOException("Corrupt checkpoint");
+
+	// Building an engine may draw from the lattice's generator too, so its state is restored last.
+	SimulationEngine engine;
+	if (engineKind == KINETIC_MONTE_CARLO_ENGINE)
+	    engine = new KineticMonteCarloEngine(lattice);
+	else if (engineKind == BEST_RESPONSE_ENGINE)
+	    engine = new BestResponseEngine(lattice);
+	else if (engineKind == PARALLEL_TILE_ENGINE)
+	    engine = new ParallelTileEngine(lattice, Runtime.getRuntime().availableProcessors(), size / (int) engineState[1]);
+	else
+	    engine = new RandomSequentialEngine(lattice);
+	engine.setState(engineState);
+	rand.setState(randomState);
+	return engine;
+    }
+
+    private static int getLatticeKind(Lattice lattice) {
+	if (lattice instanceof PackedLattice)
+	    return PACKED_LATTICE;
+	if (lattice instanceof OffHeapLattice)
+	    return OFF_HEAP_LATTICE;
+	return LATTICE;
+    }
+
+    private static int getEngineKind(SimulationEngine engine) {
+	if (engine instanceof KineticMonteCarloEngine)
+	    return KINETIC_MONTE_CARLO_ENGINE;
+	if (engine instanceof BestResponseEngine)
+	    return BEST_RESPONSE_ENGINE;
+	if (engine instanceof ParallelTileEngine)
+	    return PARALLEL_TILE_ENGINE;
+	return RANDOM_SEQUENTIAL_ENGINE;
+    }
+
+    // The fewest bits that hold every strategy number: 1 for two strategies, 8 for 256.
+    public static int getBitsPerSite(int numStrategies) {
+	return 32 - Integer.numberOfLeadingZeros(numStrategies - 1);
+    }
+
+    // WRITING. Each put first makes room by writing out the buffer.
+
+    private void reserve(int bytes) throws IOException {
+	if (buffer.remaining() < bytes)
+	    flush();
+    }
+
+    private void flush() throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    private void putByte(byte value) throws IOException {
+	reserve(1);
+	buffer.put(value);
+    }
+
+    private void putInt(int value) throws IOException {
+	reserve(4);
+	buffer.putInt(value);
+    }
+
+    private void putLong(long value) throws IOException {
+	reserve(8);
+	buffer.putLong(value);
+    }
+
+    private void putDouble(double value) throws IOException {
+	reserve(8);
+	buffer.putDouble(value);
+    }
+
+    private void putLongs(long[] values) throws IOException {
+	putInt(values.length);
+	for (int i=0; i<values.length; i++) {
+	    putLong(values[i]);
+	}
+    }
+
+    // READING. Each get first refills the buffer from the channel if it holds too few bytes.
+
+    private void require(int bytes) throws IOException {
+	if (buffer.remaining() >= bytes)
+	    return;
+	buffer.compact();
+	while (buffer.position() < bytes) {
+	    if (channel.read(buffer) < 0)
+		throw new EOFException("Truncated checkpoint");
+	}
+	buffer.flip();
+    }
+
+    private byte getByte() throws IOException {
+	require(1);
+	return buffer.get();
+    }
+
+    private int getInt() throws IOException {
+	require(4);
+	return buffer.getInt();
+    }
+
+    private long getLong() throws IOException {
+	require(8);
+	return buffer.getLong();
+    }
+
+    private double getDouble() throws IOException {
+	require(8);
+	return buffer.getDouble();
+    }
+
+    private long[] getLongs() throws IOException {
+	int length = getInt();
+	if (length < 0 || length > Integer.MAX_VALUE / 8)
+	    throw new IOException("Corrupt checkpoint");
+	long[] values = new long[length];
+	for (int i=0; i<values.length; i++) {
+	    values[i] = getLong();
+	}
+	return values;
+    }
+}
@@ -0,0 +1,69 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+
+// Draws a Lattice. The lattice itself keeps no image; the renderer pulls the current strategies
+// into its own image only when a frame is requested, so a lattice that is never drawn never pays for it.
+//
+// The image is indexed: each pixel is a strategy, one byte, and the color model maps strategies to colors.
+// A frame is then a straight copy of the strategies, whatever the number of strategies, and the palette is
+// only rebuilt when the number of strategies changes.
+public class LatticeRenderer {
+    private static final Color[] TWO_STRATEGY_COLORS = {Color.black, Color.white};
+
+    private BufferedImage image;
+    private byte[] pixels;
+    private int numStrategies;
+
+    // Copies the state of (lattice) into the image and returns it. In 1D, the image is a single row; in 3D,
+    // it's the first plane (z = 0), which is stored first.
+    public BufferedImage render(Lattice lattice) {
+	int width = lattice.getSize();
+	int height = lattice.getDimensions() == 1 ? 1 : lattice.getSize();
+	if (image == null || image.getWidth() != width || image.getHeight() != height || numStrategies != lattice.getNumStrategies()) {
+	    numStrategies = lattice.getNumStrategies();
+	    image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, createPalette(lattice));
+	    pixels = new byte[width*height];
+	}
+
+	// Sites are stored row by row, which is also the order the raster expects its pixels in.
+	for (int i=0; i<pixels.length; i++) {
+	    pixels[i] = (byte) lattice.getStrategyAt(i);
+	}
+	image.getRaster().setDataElements(0, 0, width, height, pixels);
+	return image;
+    }
+
+    // 1D version paints a single row of cells at the location (yLocation).
+    // (size) will be a variable of the drawing environment (the Simulator's canvas).
+    public void draw1D(Graphics g, Lattice lattice, int yLocation, int size) {
+	g.drawImage(render(lattice), 0, yLocation, size, 1, Color.white, null);
+    }
+
+    // 2D version paints the whole grid
+    public void draw2D(Graphics g, Lattice lattice, int size) {
+	g.drawImage(render(lattice), 0, 0, size, size, Color.white, null);
+    }
+
+    private static IndexColorModel createPalette(Lattice lattice) {
+	int numColors = lattice.getNumStrategies();
+	byte[] reds = new byte[numColors];
+	byte[] greens = new byte[numColors];
+	byte[] blues = new byte[numColors];
+	for (int i=0; i<numColors; i++) {
+	    Color color = getColorOf(lattice, i);
+	    reds[i] = (byte) color.getRed();
+	    greens[i] = (byte) color.getGreen();
+	    blues[i] = (byte) color.getBlue();
+	}
+	return new IndexColorModel(8, numColors, reds, greens, blues);
+    }
+
+    // Two strategies are drawn in black and white; more use the lattice's strategy colors.
+    private static Color getColorOf(Lattice lattice, int strategy) {
+	if (lattice.getNumStrategies() == 2)
+	    return TWO_STRATEGY_COLORS[strategy];
+	return Lattice.getStrategyColor(strategy);
+    }
+}
@@ -0,0 +1,42 @@
+// Update method 4, "Birth-death of the least fit". The chosen site replaces its least fit neighbor
+// (one chosen at random, if several tie) with a copy of itself.
+public class LeastFitBirthDeathRule extends UpdateRule {
+    private final double[] neighborPayoffs;
+
+    public LeastFitBirthDeathRule(Lattice lattice) {
+	super(lattice);
+	neighborPayoffs = new double[lattice.getDegree()];
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new LeastFitBirthDeathRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	int degree = neighborPayoffs.length;
+	// We store the payoff of each neighbor, in the order of the neighbor table.
+	for (int i=0; i<degree; i++) {
+	    neighborPayoffs[i] = lattice.getPayoff(lattice.getNeighborOf(node, i));
+	}
+
+	// We find the minimum payoff
+	double minPayoff = Double.POSITIVE_INFINITY;
+	for (int i=0; i<degree; i++) {
+	    if (neighborPayoffs[i] < minPayoff) {
+		minPayoff = neighborPayoffs[i];
+	    }
+	}
+
+	// We choose random directions until we get a node that has minimum payoff.
+	while (true) {
+	    int key = lattice.rand.nextInt(degree);
+	    if (neighborPayoffs[key] == minPayoff) {
+		// Replace the strategy at the chosen neighbor with a copy of the strategy at (node)
+		lattice.setStrategyAt(lattice.getNeighborOf(node, key), lattice.getStrategyAt(node));
+		return;
+	    }
+	}
+    }
+}
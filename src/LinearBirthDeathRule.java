@@ -0,0 +1,23 @@
+// Update method 1, "Birth-death updating (linear)". Payoffs can't be negative here, so sites only give birth,
+// at a rate proportional to their payoff.
+public class LinearBirthDeathRule extends UpdateRule {
+    public LinearBirthDeathRule(Lattice lattice) {
+	super(lattice);
+    }
+
+    @Override
+    public UpdateRule createFor(Lattice lattice) {
+	return new LinearBirthDeathRule(lattice);
+    }
+
+    @Override
+    public void update(int node) {
+	double payoff = lattice.getPayoff(node);
+
+	// Sites only give birth, and we can't have negative payoff, so we just copy the second half of update method 0.
+	if (lattice.rand.nextDouble() <= (payoff / lattice.getMaxRate())) {
+	    int neighbor = lattice.chooseNeighborAtRandom(node);
+	    lattice.setStrategyAt(neighbor, lattice.getStrategyAt(node));
+	}
+    }
+}
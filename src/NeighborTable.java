@@ -0,0 +1,274 @@
+import java.util.Arrays;
+import java.util.Comparator;
+
+// A precomputed table of the neighbors of every site of a periodic lattice (a ring in 1D, a torus in 2D and 3D).
+// The neighbors of (site) are stored in one flat array at table[site*degree] through table[site*degree + degree-1],
+// in the same order as the offsets the table was built from, so no modulo arithmetic is needed after construction.
+// A table of more than MAX_TABLE_ENTRIES entries (a large lattice with a large neighborhood) isn't stored at all;
+// getTable() returns null, and getNeighbor() computes each neighbor from the offsets instead.
+public class NeighborTable {
+    public static final long MAX_TABLE_ENTRIES = 1L << 24;
+    public static final int RUN_FIELDS = 4;
+
+    private final int size;
+    private final int dimensions;
+    private final int degree;
+    private final int[][] offsets;
+    private final int[][] wrapped;
+    private final int[] table;
+    private final int[] runs;
+
+    // Builds the table for a lattice of (size) sites per side in (dimensions) dimensions. Each offset is a
+    // displacement {dx} in 1D, {dx, dy} in 2D or {dx, dy, dz} in 3D; offsets may be arbitrarily long, as they
+    // wrap around the lattice.
+    public NeighborTable(int size, int dimensions, int[][] offsets) {
+	this.size = size;
+	this.dimensions = dimensions;
+	this.degree = offsets.length;
+	this.offsets = offsets;
+
+	int numSites = 1;
+	for (int i=0; i<dimensions; i++) {
+	    numSites *= size;
+	}
+
+	// We wrap each offset once per coordinate, rather than once per site.
+	wrapped = new int[degree][dimensions];
+	for (int k=0; k<degree; k++) {
+	    for (int d=0; d<dimensions; d++) {
+		wrapped[k][d] = ((offsets[k][d] % size) + size) % size;
+	    }
+	}
+	runs = initializeRuns();
+
+	// A 500^3 lattice has 125 million sites, so its table of even the 6 nearest neighbors won't be stored.
+	if ((long) numSites*degree > MAX_TABLE_ENTRIES) {
+	    table = null;
+	    return;
+	}
+	table = new int[numSites*degree];
+	for (int site=0; site<numSites; site++) {
+	    for (int k=0; k<degree; k++) {
+		table[site*degree + k] = computeNeighbor(site, k);
+	    }
+	}
+    }
+
+    // The four nearest neighbors on a 2D torus, using the usual clockwise-from-north indexing.
+    public static NeighborTable vonNeumann2D(int size) {
+	return vonNeumann2D(size, 1);
+    }
+
+    // The sites within (range) steps along the axes (|dx| + |dy| <= range). They're ordered by distance,
+    // and clockwise from north at each distance, so range 1 gives the usual four nearest neighbors.
+    public static NeighborTable vonNeumann2D(int size, int range) {
+	int[][] offsets = new int[2*range*(range+1)][];
+	int n = 0;
+	for (int d=1; d<=range; d++) {
+	    for (int i=0; i<d; i++) {
+		offsets[n++] = new int[] {i, -d+i};
+	    }
+	    for (int i=0; i<d; i++) {
+		offsets[n++] = new int[] {d-i, i};
+	    }
+	    for (int i=0; i<d; i++) {
+		offsets[n++] = new int[] {-i, d-i};
+	    }
+	    for (int i=0; i<d; i++) {
+		offsets[n++] = new int[] {-d+i, -i};
+	    }
+	}
+	return new NeighborTable(size, 2, offsets);
+    }
+
+    // The (2*range + 1)^2 - 1 sites of the square centered on a site, row by row.
+    public static NeighborTable moore2D(int size, int range) {
+	int[][] offsets = new int[(2*range+1)*(2*range+1) - 1][];
+	int n = 0;
+	for (int dy=-range; dy<=range; dy++) {
+	    for (int dx=-range; dx<=range; dx++) {
+		if (dx != 0 || dy != 0)
+		    offsets[n++] = new int[] {dx, dy};
+	    }
+	}
+	return new NeighborTable(size, 2, offsets);
+    }
+
+    // The sites within (range) steps along the axes of a 3D torus (|dx| + |dy| + |dz| <= range), ordered by
+    // distance, and by dz, dy and dx at each distance. Range 1 gives the 6 nearest neighbors.
+    public static NeighborTable vonNeumann3D(int size, int range) {
+	int count = 0;
+	for (int dz=-range; dz<=range; dz++) {
+	    for (int dy=-range; dy<=range; dy++) {
+		for (int dx=-range; dx<=range; dx++) {
+		    int distance = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+		    if (distance > 0 && distance <= range)
+			count++;
+		}
+	    }
+	}
+	int[][] offsets = new int[count][];
+	int n = 0;
+	for (int d=1; d<=range; d++) {
+	    for (int dz=-d; dz<=d; dz++) {
+		for (int dy=-d; dy<=d; dy++) {
+		    for (int dx=-d; dx<=d; dx++) {
+			if (Math.abs(dx) + Math.abs(dy) + Math.abs(dz) == d)
+			    offsets[n++] = new int[] {dx, dy, dz};
+		    }
+		}
+	    }
+	}
+	return new NeighborTable(size, 3, offsets);
+    }
+
+    // The (2*range + 1)^3 - 1 sites of the cube centered on a site, plane by plane and row by row.
+    // Range 1 gives the 26 sites sharing a face, edge or corner with it.
+    public static NeighborTable moore3D(int size, int range) {
+	int[][] offsets = new int[(2*range+1)*(2*range+1)*(2*range+1) - 1][];
+	int n = 0;
+	for (int dz=-range; dz<=range; dz++) {
+	    for (int dy=-range; dy<=range; dy++) {
+		for (int dx=-range; dx<=range; dx++) {
+		    if (dx != 0 || dy != 0 || dz != 0)
+			offsets[n++] = new int[] {dx, dy, dz};
+		}
+	    }
+	}
+	return new NeighborTable(size, 3, offsets);
+    }
+
+    // The 2*(range) neighbors on a 1D ring: first the (range) sites to the west, nearest first, then the
+    // (range) sites to the east, nearest first.
+    public static NeighborTable ring1D(int size, int range) {
+	int[][] offsets = new int[2*range][1];
+	for (int distance=1; distance<=range; distance++) {
+	    offsets[distance-1][0] = -distance;
+	    offsets[range + distance-1][0] = distance;
+	}
+	return new NeighborTable(size, 1, offsets);
+    }
+
+    // The offsets are already wrapped into [0, size), so each coordinate wraps with at most one subtraction.
+    private int computeNeighbor(int site, int k) {
+	int x = site % size;
+	int nx = x + wrapped[k][0];
+	if (nx >= size)
+	    nx -= size;
+	if (dimensions == 1)
+	    return nx;
+	int row = site / size;
+	int y = row % size;
+	int ny = y + wrapped[k][1];
+	if (ny >= size)
+	    ny -= size;
+	if (dimensions == 2)
+	    return ny*size + nx;
+	int z = row / size;
+	int nz = z + wrapped[k][2];
+	if (nz >= size)
+	    nz -= size;
+	return (nz*size + ny)*size + nx;
+    }
+
+    // Splits the offsets into runs of consecutive dx in the same row: the neighborhood is the union of the
+    // runs {dz, dy, dx, length}, covering dx through dx + length-1 in the row dy, dz away (dz and dy are 0 where
+    // the lattice has no such axis), flattened into one array of RUN_FIELDS entries per run and sorted by row.
+    // Updates that touch every neighbor can then work on contiguous memory, one run at a time. (A repeated offset
+    // starts a new run, so the runs cover the offsets exactly as often as they occur.)
+    private int[] initializeRuns() {
+	int[][] sorted = new int[degree][];
+	for (int k=0; k<degree; k++) {
+	    sorted[k] = new int[] {dimensions >= 3 ? offsets[k][2] : 0, dimensions >= 2 ? offsets[k][1] : 0, offsets[k][0]};
+	}
+	Arrays.sort(sorted, LEXICOGRAPHIC);
+	int[] result = new int[RUN_FIELDS*degree];
+	int n = 0;
+	for (int k=0; k<degree; k++) {
+	    if (n > 0 && result[n-4] == sorted[k][0] && result[n-3] == sorted[k][1] && result[n-2] + result[n-1] == sorted[k][2]) {
+		result[n-1]++;
+	    }
+	    else {
+		result[n++] = sorted[k][0];
+		result[n++] = sorted[k][1];
+		result[n++] = sorted[k][2];
+		result[n++] = 1;
+	    }
+	}
+	return Arrays.copyOf(result, n);
+    }
+
+    public int getNeighbor(int site, int k) {
+	if (table != null)
+	    return table[site*degree + k];
+	return computeNeighbor(site, k);
+    }
+
+    // Returns the neighborhood as runs {dz, dy, dx, length}, flattened; see initializeRuns().
+    public int[] getRuns() {
+	return runs;
+    }
+
+    public int getNumRuns() {
+	return runs.length / RUN_FIELDS;
+    }
+
+    // Returns the largest distance along an axis between a site and one of its neighbors.
+    public int getReach() {
+	int reach = 0;
+	for (int k=0; k<degree; k++) {
+	    for (int d=0; d<dimensions; d++) {
+		reach = Math.max(reach, Math.abs(offsets[k][d]));
+	    }
+	}
+	return reach;
+    }
+
+    // Returns true if every offset occurs as often as its opposite, i.e. if j is a neighbor of i exactly when
+    // i is a neighbor of j. The lattice relies on this to update the compositions of a site's neighbors.
+    public boolean isSymmetric() {
+	int[][] forward = new int[degree][];
+	int[][] backward = new int[degree][];
+	for (int k=0; k<degree; k++) {
+	    forward[k] = wrapped[k].clone();
+	    backward[k] = new int[dimensions];
+	    for (int d=0; d<dimensions; d++) {
+		backward[k][d] = (size - wrapped[k][d]) % size;
+	    }
+	}
+	Arrays.sort(forward, LEXICOGRAPHIC);
+	Arrays.sort(backward, LEXICOGRAPHIC);
+	return Arrays.deepEquals(forward, backward);
+    }
+
+    private static final Comparator<int[]> LEXICOGRAPHIC = new Comparator<int[]>() {
+	@Override
+	public int compare(int[] a, int[] b) {
+	    for (int i=0; i<a.length; i++) {
+		if (a[i] != b[i])
+		    return a[i] < b[i] ? -1 : 1;
+	    }
+	    return 0;
+	}
+    };
+
+    public int getDegree() {
+	return degree;
+    }
+
+    public int getSize() {
+	return size;
+    }
+
+    public int getDimensions() {
+	return dimensions;
+    }
+
+    public int[][] getOffsets() {
+	return offsets;
+    }
+
+    public int[] getTable() {
+	return table;
+    }
+}
@@ -0,0 +1,7 @@
+// A number measured from a running simulation, such as a strategy's proportion, for ObservableAccumulator to
+// average over time.
+public interface Observable {
+    String getName();
+
+    double measure(SimulationEngine engine);
+}
@@ -0,0 +1,130 @@
+// Averages observables over a run instead of reading them off its last step, which is a single sample of a
+// fluctuating quantity. Once the run is past (burnIn), every observable is measured each (interval) units of
+// time, and the samples are accumulated into a BlockedStatistics each, which gives the time-averaged mean, the
+// variance of the samples, and an error bar for the mean corrected for their autocorrelation. A mean with an
+// honest error bar lets a smaller lattice or a shorter run stand in for a bigger one.
+//
+// update() is called after every step, and is a comparison unless a sample is due; sampling allocates nothing.
+// The state can be saved and restored with a run's checkpoint, so a resumed run averages the same samples.
+public class ObservableAccumulator {
+    public static final double DEFAULT_INTERVAL = 0.1;
+
+    private final Observable[] observables;
+    private final BlockedStatistics[] statistics;
+    private final double burnIn;
+    private final double interval;
+    private double nextSampleTime;
+
+    public ObservableAccumulator(Observable[] observables, double burnIn) {
+	this(observables, burnIn, DEFAULT_INTERVAL);
+    }
+
+    public ObservableAccumulator(Observable[] observables, double burnIn, double interval) {
+	this.observables = observables;
+	this.burnIn = burnIn;
+	this.interval = interval;
+	statistics = new BlockedStatistics[observables.length];
+	for (int k=0; k<observables.length; k++) {
+	    statistics[k] = new BlockedStatistics();
+	}
+	nextSampleTime = burnIn;
+    }
+
+    // Takes a sample of every observable if one is due.
+    public void update(SimulationEngine engine) {
+	double time = engine.getTime();
+	if (time < nextSampleTime)
+	    return;
+	for (int k=0; k<observables.length; k++) {
+	    statistics[k].add(observables[k].measure(engine));
+	}
+	nextSampleTime = (Math.floor(time / interval) + 1) * interval;
+    }
+
+    public int getNumObservables() {
+	return observables.length;
+    }
+
+    public Observable getObservable(int k) {
+	return observables[k];
+    }
+
+    public long getNumSamples() {
+	return statistics[0].getCount();
+    }
+
+    public double getMean(int k) {
+	return statistics[k].getMean();
+    }
+
+    public double getVariance(int k) {
+	return statistics[k].getVariance();
+    }
+
+    // The standard error of getMean(k), corrected for the autocorrelation of the samples.
+    public double getError(int k) {
+	return statistics[k].getError();
+    }
+
+    // The integrated autocorrelation time of observable (k), in units of time.
+    public double getAutocorrelationTime(int k) {
+	return statistics[k].getAutocorrelationTime() * interval;
+    }
+
+    public double getBurnIn() {
+	return burnIn;
+    }
+
+    // {nextSampleTime, then each observable's statistics}.
+    public long[] getState() {
+	int length = BlockedStatistics.getStateLength();
+	long[] state = new long[1 + observables.length*length];
+	state[0] = Double.doubleToLongBits(nextSampleTime);
+	for (int k=0; k<observables.length; k++) {
+	    System.arraycopy(statistics[k].getState(), 0, state, 1 + k*length, length);
+	}
+	return state;
+    }
+
+    public void setState(long[] state) {
+	int length = BlockedStatistics.getStateLength();
+	if (state.length != 1 + observables.length*length)
+	    throw new IllegalArgumentException("The state is for a different accumulator.");
+	nextSampleTime = Double.longBitsToDouble(state[0]);
+	long[] observableState = new long[length];
+	for (int k=0; k<observables.length; k++) {
+	    System.arraycopy(state, 1 + k*length, observableState, 0, length);
+	    statistics[k].setState(observableState);
+	}
+    }
+
+    // The proportion of (strategy).
+    public static Observable proportionOf(final int strategy) {
+	return new Observable() {
+	    @Override
+	    public String getName() {
+		return "proportion" + strategy;
+	    }
+
+	    @Override
+	    public double measure(SimulationEngine engine) {
+		return engine.getLattice().getProportionOf(strategy);
+	    }
+	};
+    }
+
+    // The fraction of neighboring pairs that play different strategies; see Lattice.getInterfaceDensity().
+    public static Observable interfaceDensity() {
+	return new Observable() {
+	    @Override
+	    public String getName() {
+		return "interfaceDensity";
+	    }
+
+	    @Override
+	    public double measure(SimulationEngine engine) {
+		return engine.getLattice().getInterfaceDensity();
+	    }
+	};
+    }
+}
@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// A lattice whose sites and composition codes live outside the Java heap, in memory-mapped files, so that a
+// lattice can be far larger than the heap and never adds to garbage collection. The sites take one byte each,
+// as in Lattice, in a file that may be given (to keep the lattice on disk) or a temporary one; the compositions
+// are always in a temporary file, since they can be recomputed. The operating system pages both in and out as
+// needed, so a lattice larger than physical memory runs too, only more slowly.
+//
+// A mapping can't exceed 2 GB, so both files are mapped in chunks of CHUNK_SIZE bytes. Site indices are still
+// ints, so a 2D lattice can be up to 46340 x 46340 sites: 2 GB of sites and 8 GB of compositions.
+//
+// Everything else, including the update rules, the engines and views, works on an OffHeapLattice as on any other
+// Lattice, through the same accessors. The neighbors are computed rather than tabulated for large lattices
+// (see NeighborTable), and compositions are updated one neighbor at a time.
+//
+// setDimensions() and setNumStrategies() draw a new lattice, as they do for any Lattice, and so recreate a given
+// file at the new size: whatever sites it held are lost, and a message says so.
+public class OffHeapLattice extends Lattice {
+    protected static final int CHUNK_BITS = 30;
+    protected static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    protected static final int INT_CHUNK_BITS = CHUNK_BITS - 2;
+
+    protected File file;
+    // True until the first allocation, if (file) already held a lattice of the right size to resume from.
+    private boolean resume;
+    protected ByteBuffer[] siteChunks;
+    protected IntBuffer[] compositionChunks;
+
+    // Creates a lattice in temporary files, which are deleted when it is no longer used.
+    public OffHeapLattice(int size, int dimensions, int numStrategies, int interactionRange, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix, long seed) {
+	this(size, dimensions, numStrategies, interactionRange, initProportionMasks, updateMethod, payoffMatrix, RandomSource.create(seed), null);
+    }
+
+    // Creates a lattice whose sites are kept in (file), one byte per site, in the usual order. If (file) already
+    // holds exactly as many sites, they are used as the initial configuration (and (rand) draws nothing for
+    // them); otherwise it's overwritten with a random configuration. Call flush() to be sure it's all on disk.
+    public OffHeapLattice(int size, int dimensions, int numStrategies, int interactionRange, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix, RandomSource rand, File file) {
+	super(size, dimensions, numStrategies, interactionRange, updateMethod, rand);
+	this.file = file;
+	initializeNumSites();
+	resume = file != null && file.length() == numSites;
+	initializeLattice(initProportionMasks, payoffMatrix);
+	checkMode();
+    }
+
+    // A view shares the mapped buffers; absolute gets and puts don't touch the buffers' positions, so workers
+    // updating far-apart sites through different views don't interfere.
+    protected OffHeapLattice(OffHeapLattice lattice, long seed) {
+	super(lattice, seed);
+	file = lattice.file;
+	siteChunks = lattice.siteChunks;
+	compositionChunks = lattice.compositionChunks;
+    }
+
+    @Override
+    public Lattice createView(long seed) {
+	return new OffHeapLattice(this, seed);
+    }
+
+    @Override
+    protected void initializeArray() {
+	initializeNumSites();
+	if (siteChunks != null && file != null)
+	    System.err.println("Recreating " + file + " for the new lattice; the sites it held are lost.");
+	siteChunks = map(file, numSites, resume);
+	initializeNeighborTable();
+	initializeUpdateRule();
+
+	if (resume) {
+	    for (int i=0; i<numSites; i++) {
+		int strategy = getStrategyAt(i);
+		if (strategy >= numStrategies) {
+		    System.err.println(file + " has strategy " + strategy + " at site " + i + ", but the lattice has " + numStrategies + " strategies. EXITING.");
+		    System.exit(1);
+		}
+		strategyCounts[strategy]++;
+	    }
+	    resume = false;
+	}
+	else {
+	    // We draw one number per site, exactly as Lattice does, so the same seed gives the same initial configuration.
+	    double[] sumToI = getInitProportionSums();
+	    for (int i=0; i<numSites; i++) {
+		int strategy = CategoricalSampler.search(sumToI, rand.nextDouble());
+		siteChunks[i >>> CHUNK_BITS].put(i & (CHUNK_SIZE-1), (byte) strategy);
+		strategyCounts[strategy]++;
+	    }
+	}
+
+	initializeComposition();
+	initializePayoffTable();
+	initializeDiscordantEdges();
+    }
+
+    // Maps (length) bytes of (file), or of a temporary file if it's null, in chunks of CHUNK_SIZE bytes. Unless
+    // (keep) is set, the file is cleared. A temporary file is deleted right away where the system allows it
+    // (the mapping stays valid until it's collected), and otherwise when the program exits.
+    protected static ByteBuffer[] map(File file, long length, boolean keep) {
+	try {
+	    boolean temporary = file == null;
+	    if (temporary)
+		file = File.createTempFile("lattice", ".bin");
+	    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	    try {
+		if (!keep)
+		    raf.setLength(0);
+		raf.setLength(length);
+		FileChannel channel = raf.getChannel();
+		ByteBuffer[] chunks = new ByteBuffer[(int) ((length + CHUNK_SIZE-1) >>> CHUNK_BITS)];
+		for (int c=0; c<chunks.length; c++) {
+		    long position = (long) c << CHUNK_BITS;
+		    MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.min(CHUNK_SIZE, length - position));
+		    chunks[c] = chunk.order(ByteOrder.nativeOrder());
+		}
+		return chunks;
+	    } finally {
+		// The mappings outlive the file handle.
+		raf.close();
+		if (temporary && !file.delete())
+		    file.deleteOnExit();
+	    }
+	} catch (IOException e) {
+	    System.err.println("Couldn't map " + file + ": " + e.getMessage() + ". EXITING.");
+	    System.exit(1);
+	    return null;
+	}
+    }
+
+    // The codes are computed one site at a time from its neighbors, which is the same in every dimension.
+    @Override
+    protected void initializeComposition() {
+	compositionChunks = null;
+	if (!initializeCompositionWeights())
+	    return;
+	ByteBuffer[] bytes = map(null, 4L*numSites, false);
+	compositionChunks = new IntBuffer[bytes.length];
+	for (int c=0; c<bytes.length; c++) {
+	    compositionChunks[c] = bytes[c].asIntBuffer();
+	}
+	for (int i=0; i<numSites; i++) {
+	    int code = 0;
+	    for (int k=0; k<degree; k++) {
+		code += compositionWeights[getStrategyAt(getNeighborOf(i, k))];
+	    }
+	    compositionChunks[i >>> INT_CHUNK_BITS].put(i & ((1 << INT_CHUNK_BITS)-1), code);
+	}
+    }
+
+    protected int getComposition(int site) {
+	return compositionChunks[site >>> INT_CHUNK_BITS].get(site & ((1 << INT_CHUNK_BITS)-1));
+    }
+
+    protected void addToComposition(int site, int delta) {
+	IntBuffer chunk = compositionChunks[site >>> INT_CHUNK_BITS];
+	int index = site & ((1 << INT_CHUNK_BITS)-1);
+	chunk.put(index, chunk.get(index) + delta);
+    }
+
+    @Override
+    protected boolean isAllocated() {
+	return siteChunks != null;
+    }
+
+    @Override
+    public int getStrategyAt(int site) {
+	return siteChunks[site >>> CHUNK_BITS].get(site & (CHUNK_SIZE-1)) & 0xFF;
+    }
+
+    @Override
+    public void setStrategyAt(int site, int strategy) {
+	int oldStrategy = getStrategyAt(site);
+	if (strategy == oldStrategy)
+	    return;
+	discordantEdges += getNeighborCountOf(site, oldStrategy) - getNeighborCountOf(site, strategy);
+	strategyCounts[oldStrategy]--;
+	siteChunks[site >>> CHUNK_BITS].put(site & (CHUNK_SIZE-1), (byte) strategy);
+	strategyCounts[strategy]++;
+
+	if (compositionWeights == null)
+	    return;
+	int delta = compositionWeights[strategy] - compositionWeights[oldStrategy];
+	if (delta != 0) {
+	    for (int k=0; k<degree; k++) {
+		addToComposition(getNeighborOf(site, k), delta);
+	    }
+	}
+    }
+
+    @Override
+    public int getNeighborCountOf(int node, int strategy) {
+	if (compositionWeights != null)
+	    return getCompositionCount(getComposition(node), strategy);
+	return super.getNeighborCountOf(node, strategy);
+    }
+
+    @Override
+    protected double sumPayoffGivenStrategy(int node, int strategy) {
+	double[] row = payoffMatrix[strategy];
+	double payoff = 0;
+	for (int k=0; k<degree; k++) {
+	    payoff += row[getStrategyAt(getNeighborOf(node, k))];
+	}
+	return payoff;
+    }
+
+    @Override
+    public double getPayoffGivenStrategy(int node, int strategy) {
+	if (compositionWeights == null)
+	    return sumPayoffGivenStrategy(node, strategy);
+	return payoffTable[strategy*numCompositions + getComposition(node)];
+    }
+
+    @Override
+    public double getPayoff(int node) {
+	return getPayoffGivenStrategy(node, getStrategyAt(node));
+    }
+
+    // Writes any changes to the sites out to the file.
+    public void flush() {
+	for (int c=0; c<siteChunks.length; c++) {
+	    ((MappedByteBuffer) siteChunks[c]).force();
+	}
+    }
+
+    public File getFile() {
+	return file;
+    }
+}
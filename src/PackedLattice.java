@@ -0,0 +1,278 @@
+// A two-strategy, 2D nearest-neighbor lattice that stores one bit per site. Site (site) is bit (site & 63) of
+// words[site >>> 6], set when the site plays strategy 1, so the sites are the same flat row-by-row sequence as in
+// Lattice, just 64 to a long. There is no neighbor table and no composition array: neighbors are computed from
+// the site index, and a neighborhood's composition is read straight out of the bits. A site costs 1 bit instead
+// of the 21 bytes (strategy, composition code and 4 table entries) a Lattice spends on it, so a lattice of the
+// largest size the int site indices allow (46340 x 46340) fits in about 270 MB.
+//
+// Everything else, including the update methods and the engines, works on a PackedLattice as on any other Lattice.
+// The exception is views: neighboring sites share words, so concurrent updates through views could lose each
+// other's writes, and createView() refuses.
+public class PackedLattice extends Lattice {
+    protected long[] words;
+
+    public PackedLattice(int size, int updateMethod, double[][] payoffMatrix, long seed) {
+	this(size, DEFAULT_2STRATEGY_INIT_PROPORTION_MASKS, updateMethod, payoffMatrix, seed);
+    }
+
+    public PackedLattice(int size, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix, long seed) {
+	this(size, initProportionMasks, updateMethod, payoffMatrix, RandomSource.create(seed));
+    }
+
+    public PackedLattice(int size, double[] initProportionMasks, int updateMethod, double[][] payoffMatrix, RandomSource rand) {
+	super(size, 2, 2, 1, initProportionMasks, updateMethod, payoffMatrix, rand);
+    }
+
+    @Override
+    protected void initializeArray() {
+	numSites = size*size;
+	words = new long[(numSites + 63) >>> 6];
+	initializeNeighborTable();
+	initializeUpdateRule();
+
+	// We draw one number per site, exactly as Lattice does, so the same seed gives the same initial configuration.
+	double proportion0 = getInitProportionOf(0);
+	double proportion1 = proportion0 + getInitProportionOf(1);
+	for (int i=0; i<numSites; i++) {
+	    double key = rand.nextDouble();
+	    if (key > proportion0 && key <= proportion1)
+		words[i >>> 6] |= 1L << i;
+	}
+	recountStrategies();
+
+	initializeComposition();
+	initializePayoffTable();
+	initializeDiscordantEdges();
+    }
+
+    // The neighborhood is always the four nearest neighbors, which are computed rather than stored.
+    @Override
+    protected void initializeNeighborTable() {
+	neighborTable = null;
+	neighbors = null;
+	degree = 4;
+    }
+
+    // Only the weights are needed: the composition code of a site is the number of its neighbors playing
+    // strategy 0, and it's counted from the bits whenever it's asked for.
+    @Override
+    protected void initializeComposition() {
+	compositionWeights = new int[] {1, 0};
+	numCompositions = degree + 1;
+    }
+
+    // Recomputes the strategy counts from the bits. The bits past the last site are always clear.
+    public void recountStrategies() {
+	long ones = 0;
+	for (int i=0; i<words.length; i++) {
+	    ones += Long.bitCount(words[i]);
+	}
+	strategyCounts[1] = (int) ones;
+	strategyCounts[0] = numSites - (int) ones;
+    }
+
+    @Override
+    protected boolean isAllocated() {
+	return words != null;
+    }
+
+    @Override
+    protected int getModeErrors() {
+	int errors = super.getModeErrors();
+	if (errors != 0)
+	    return errors;
+	if (dimensions != 2 || numStrategies != 2 || interactionRange != 1 || neighborhood != NEIGHBORHOOD_VON_NEUMANN)
+	    return 6;
+	return 0;
+    }
+
+    // The parallel engine works through views, so a packed lattice always runs serially.
+    @Override
+    public SimulationEngine createParallelEngine(int threads) {
+	return createEngine();
+    }
+
+    @Override
+    public Lattice createView(long seed) {
+	System.err.println("Packed lattices can't be split into views, since neighboring sites share words. EXITING.");
+	System.exit(1);
+	return null;
+    }
+
+    @Override
+    public int getStrategyAt(int site) {
+	return (int) (words[site >>> 6] >>> site) & 1;
+    }
+
+    @Override
+    public void setStrategyAt(int site, int strategy) {
+	int oldStrategy = getStrategyAt(site);
+	if (strategy == oldStrategy)
+	    return;
+	// Of the four pairs, those with strategy-1 neighbors become concordant if (site) turns to 1, and vice versa.
+	int ones = getNeighborOnes(site);
+	discordantEdges += strategy == 1 ? degree - 2*ones : 2*ones - degree;
+	strategyCounts[oldStrategy]--;
+	strategyCounts[strategy]++;
+	if (strategy == 0)
+	    words[site >>> 6] &= ~(1L << site);
+	else
+	    words[site >>> 6] |= 1L << site;
+    }
+
+    // The neighbors are numbered as in NeighborTable.vonNeumann2D(): north, east, south, west.
+    @Override
+    public int getNeighborOf(int node, int k) {
+	switch (k) {
+	case 0:
+	    return node >= size ? node - size : node - size + numSites;
+	case 1:
+	    return node % size == size-1 ? node - size+1 : node + 1;
+	case 2:
+	    return node < numSites - size ? node + size : node + size - numSites;
+	default:
+	    return node % size == 0 ? node + size-1 : node - 1;
+	}
+    }
+
+    @Override
+    public int getNeighborOf2D(int node, int direction) {
+	return getNeighborOf(node, direction);
+    }
+
+    @Override
+    public int chooseNeighborAtRandom(int node) {
+	return getNeighborOf(node, rand.nextInt(degree));
+    }
+
+    // Returns how many neighbors of (node) play strategy 1: the four neighbor bits are shifted into one nibble
+    // and counted together.
+    protected int getNeighborOnes(int node) {
+	int x = node % size;
+	int north = node >= size ? node - size : node - size + numSites;
+	int south = node < numSites - size ? node + size : node + size - numSites;
+	int east = x == size-1 ? node - size+1 : node + 1;
+	int west = x == 0 ? node + size-1 : node - 1;
+	long nibble = ((words[north >>> 6] >>> north) & 1)
+	    | (((words[east >>> 6] >>> east) & 1) << 1)
+	    | (((words[south >>> 6] >>> south) & 1) << 2)
+	    | (((words[west >>> 6] >>> west) & 1) << 3);
+	return Long.bitCount(nibble);
+    }
+
+    @Override
+    public int getNeighborCountOf(int node, int strategy) {
+	int ones = getNeighborOnes(node);
+	return strategy == 1 ? ones : degree - ones;
+    }
+
+    @Override
+    public double getPayoffGivenStrategy(int node, int strategy) {
+	return payoffTable[strategy*numCompositions + degree - getNeighborOnes(node)];
+    }
+
+    @Override
+    public double getPayoff(int node) {
+	return payoffTable[getStrategyAt(node)*numCompositions + degree - getNeighborOnes(node)];
+    }
+
+    // Returns the 64 bits starting at site (start), wrapping around the end of the lattice, so that bit j of
+    // the result is the strategy of site (start + j) mod (numSites).
+    protected long getBits(long start) {
+	start = ((start % numSites) + numSites) % numSites;
+	if (start + 64 <= numSites) {
+	    int word = (int) (start >>> 6);
+	    int offset = (int) (start & 63);
+	    if (offset == 0)
+		return words[word];
+	    return (words[word] >>> offset) | (words[word+1] << (64 - offset));
+	}
+	long bits = 0;
+	for (int j=0; j<64; j++) {
+	    int site = (int) ((start + j) % numSites);
+	    bits |= ((words[site >>> 6] >>> site) & 1) << j;
+	}
+	return bits;
+    }
+
+    // Counts the strategy-1 neighbors of the 64 sites in words[word] at once. The count of the site in bit j
+    // comes out bit-sliced: it's (bit j of planes[0]) + 2*(bit j of planes[1]) + 4*(bit j of planes[2]).
+    // The north and south neighbors of the word are the bits (size) sites before and after it; the east and
+    // west ones are the bits one site over, corrected at the ends of rows, where the lattice wraps around.
+    protected void getNeighborCountPlanes(int word, long[] planes) {
+	long first = (long) word << 6;
+	long north = getBits(first - size);
+	long south = getBits(first + size);
+	long east = getBits(first + 1);
+	long west = getBits(first - 1);
+
+	// The last site of a row has the first site of the same row as its east neighbor, and vice versa.
+	int last = (int) Math.min(first + 64, numSites);
+	for (int site = (int) (first + size-1 - first % size); site < last; site += size) {
+	    int j = site - (int) first;
+	    long wrapped = (words[(site - size+1) >>> 6] >>> (site - size+1)) & 1;
+	    east = (east & ~(1L << j)) | (wrapped << j);
+	}
+	for (int site = (int) (first + (size - first % size) % size); site < last; site += size) {
+	    int j = site - (int) first;
+	    long wrapped = (words[(site + size-1) >>> 6] >>> (site + size-1)) & 1;
+	    west = (west & ~(1L << j)) | (wrapped << j);
+	}
+
+	addBits(north, east, south, west, planes);
+    }
+
+    // A bit-sliced adder of four words: bit j of the sum (a number from 0 to 4) is written into bit j of
+    // planes[0], planes[1] and planes[2], lowest first. It's two half adders, then the sums and carries combined.
+    protected static void addBits(long a, long b, long c, long d, long[] planes) {
+	long sumAB = a ^ b;
+	long carryAB = a & b;
+	long sumCD = c ^ d;
+	long carryCD = c & d;
+	long carry = sumAB & sumCD;
+	planes[0] = sumAB ^ sumCD;
+	planes[1] = carryAB ^ carryCD ^ carry;
+	planes[2] = (carryAB & carryCD) | (carryAB & carry) | (carryCD & carry);
+    }
+
+    // Returns the bits whose sum, as written by addBits(), is (count).
+    protected static long matchCount(long[] planes, int count) {
+	long match = (count & 1) != 0 ? planes[0] : ~planes[0];
+	match &= (count & 2) != 0 ? planes[1] : ~planes[1];
+	match &= (count & 4) != 0 ? planes[2] : ~planes[2];
+	return match;
+    }
+
+    // Returns counts[s][c], the number of sites playing (s) with exactly (c) neighbors playing strategy 1,
+    // counted 64 sites at a time.
+    public long[][] getLocalConfigurationCounts() {
+	long[][] counts = new long[2][degree+1];
+	long[] planes = new long[3];
+	for (int word=0; word<words.length; word++) {
+	    long valid = numSites - ((long) word << 6) >= 64 ? -1L : (1L << (numSites & 63)) - 1;
+	    getNeighborCountPlanes(word, planes);
+	    for (int c=0; c<=degree; c++) {
+		long match = valid & matchCount(planes, c);
+		counts[1][c] += Long.bitCount(match & words[word]);
+		counts[0][c] += Long.bitCount(match & ~words[word]);
+	    }
+	}
+	return counts;
+    }
+
+    // Counts the discordant pairs 64 sites at a time: a site playing 1 with (c) neighbors playing 1 disagrees
+    // with 4 - c of them, and one playing 0 with (c) of them.
+    @Override
+    protected void initializeDiscordantEdges() {
+	long[][] counts = getLocalConfigurationCounts();
+	long sum = 0;
+	for (int c=0; c<=degree; c++) {
+	    sum += c*counts[0][c] + (degree - c)*counts[1][c];
+	}
+	discordantEdges = sum / 2;
+    }
+
+    public long[] getWords() {
+	return words;
+    }
+}
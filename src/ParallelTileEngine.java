@@ -0,0 +1,231 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Runs a single large 2D lattice on several cores by domain decomposition.
+//
+// The torus is split into an even number of tiles per side, and the tiles are colored like a 2x2 checkerboard,
+// so that two tiles of the same color are always at least a whole tile apart. With a neighborhood reaching (k)
+// sites along each axis, an update at a site reads the sites and compositions within distance k of it and writes
+// within distance 2k (the site or a neighbor, and the compositions of that site's neighbors), so updates at sites
+// 4k+1 or more apart never touch the same memory. Tiles are therefore at least MIN_TILE_SIZE*k sites wide, and all
+// the tiles of one color can be updated at once.
+//
+// Each round visits the four colors in a random order. In its color's phase, every tile performs as many
+// random-sequential updates as it has sites, on sites chosen uniformly within the tile, in a ForkJoin task with
+// its own Lattice view (and so its own random number generator and strategy counts, merged after the phase).
+// A round is therefore one sweep of the lattice, worth 1/maxRate units of time.
+//
+// This is not random-sequential updating. Within a round, every tile receives exactly its share of updates
+// rather than a multinomial one, and a tile's updates all happen in one burst while the rest of the lattice
+// waits, so two sites in different tiles of one color are never updated in an interleaved order, and a site near
+// a tile boundary sees its neighbors in other tiles change only between phases. Single-site statistics per unit
+// of time are the same, and the effect on the dynamics shrinks as the tiles grow; but correlation in time at
+// scales below one round differs, and results should be checked against the serial engines where it matters.
+public class ParallelTileEngine implements SimulationEngine {
+    public static final int MIN_TILE_SIZE = 4;
+    protected static final int DEFAULT_TILE_SIZE = 32;
+
+    private Lattice lattice;
+    private ForkJoinPool pool;
+    private int tilesPerSide;
+    private int[] tileBounds;
+    private List<List<Tile>> tilesByColor;
+    private int[] colorOrder = {0, 1, 2, 3};
+    private double time;
+    private int payoffVersion;
+
+    public ParallelTileEngine(Lattice lattice) {
+	this(lattice, Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE);
+    }
+
+    public ParallelTileEngine(Lattice lattice, int parallelism, int tileSize) {
+	if (lattice.getDimensions() != 2) {
+	    System.err.println("The parallel tile engine only runs 2D lattices. EXITING.");
+	    System.exit(1);
+	}
+	// The number of tiles per side has to be even for the checkerboard to wrap around the torus.
+	int minTileSize = MIN_TILE_SIZE * lattice.getNeighborhoodReach();
+	tilesPerSide = 2 * (lattice.getSize() / (2*Math.max(tileSize, minTileSize)));
+	if (tilesPerSide < 2) {
+	    System.err.println("The lattice is too small to be split into tiles at least " + minTileSize + " wide. EXITING.");
+	    System.exit(1);
+	}
+	this.lattice = lattice;
+	pool = new ForkJoinPool(parallelism);
+	tileBounds = new int[tilesPerSide+1];
+	for (int i=0; i<=tilesPerSide; i++) {
+	    tileBounds[i] = (int) ((long) i * lattice.getSize() / tilesPerSide);
+	}
+	initializeTiles();
+    }
+
+    // Tiles take their seeds from the lattice's generator, so a run is reproducible whatever the scheduling.
+    private void initializeTiles() {
+	tilesByColor = new ArrayList<List<Tile>>();
+	for (int c=0; c<4; c++) {
+	    tilesByColor.add(new ArrayList<Tile>());
+	}
+	for (int ty=0; ty<tilesPerSide; ty++) {
+	    for (int tx=0; tx<tilesPerSide; tx++) {
+		Tile tile = new Tile(lattice.createView(lattice.rand.nextLong()),
+				     tileBounds[tx], tileBounds[tx+1], tileBounds[ty], tileBounds[ty+1]);
+		tilesByColor.get((tx % 2) + 2*(ty % 2)).add(tile);
+	    }
+	}
+	payoffVersion = lattice.getPayoffVersion();
+    }
+
+    // Performs one round: a sweep of the whole lattice, one color at a time.
+    @Override
+    public boolean step() {
+	// The views copy the payoff-derived constants, so they are rebuilt when the payoffs change.
+	if (payoffVersion != lattice.getPayoffVersion())
+	    initializeTiles();
+
+	for (int i=3; i>0; i--) {
+	    int j = lattice.rand.nextInt(i+1);
+	    int temp = colorOrder[i];
+	    colorOrder[i] = colorOrder[j];
+	    colorOrder[j] = temp;
+	}
+	for (int c=0; c<4; c++) {
+	    List<Tile> tiles = tilesByColor.get(colorOrder[c]);
+	    pool.invoke(new TileTask(tiles, 0, tiles.size()));
+	    for (Tile tile : tiles) {
+		lattice.mergeView(tile.view);
+	    }
+	}
+	time += 1.0 / lattice.getMaxRate();
+	return true;
+    }
+
+    public void shutdown() {
+	pool.shutdown();
+    }
+
+    @Override
+    public double getTime() {
+	return time;
+    }
+
+    @Override
+    public void setTime(double time) {
+	this.time = time;
+    }
+
+    // The state is the time, the number of tiles per side, the current order of the colors, and the state of
+    // every tile's generator, each preceded by its length, in the order the tiles are built.
+    @Override
+    public long[] getState() {
+	if (payoffVersion != lattice.getPayoffVersion())
+	    initializeTiles();
+	List<long[]> tileStates = new ArrayList<long[]>();
+	int length = 6;
+	for (List<Tile> tiles : tilesByColor) {
+	    for (Tile tile : tiles) {
+		long[] tileState = tile.view.rand.getState();
+		tileStates.add(tileState);
+		length += 1 + tileState.length;
+	    }
+	}
+	long[] state = new long[length];
+	state[0] = Double.doubleToRawLongBits(time);
+	state[1] = tilesPerSide;
+	for (int c=0; c<4; c++) {
+	    state[2+c] = colorOrder[c];
+	}
+	int n = 6;
+	for (long[] tileState : tileStates) {
+	    state[n++] = tileState.length;
+	    System.arraycopy(tileState, 0, state, n, tileState.length);
+	    n += tileState.length;
+	}
+	return state;
+    }
+
+    @Override
+    public void setState(long[] state) {
+	if (state[1] != tilesPerSide) {
+	    System.err.println("The saved state has " + state[1] + " tiles per side, not " + tilesPerSide + ". EXITING.");
+	    System.exit(1);
+	}
+	time = Double.longBitsToDouble(state[0]);
+	for (int c=0; c<4; c++) {
+	    colorOrder[c] = (int) state[2+c];
+	}
+	int n = 6;
+	for (List<Tile> tiles : tilesByColor) {
+	    for (Tile tile : tiles) {
+		int length = (int) state[n++];
+		tile.view.rand.setState(Arrays.copyOfRange(state, n, n + length));
+		n += length;
+	    }
+	}
+    }
+
+    @Override
+    public Lattice getLattice() {
+	return lattice;
+    }
+
+    public int getTilesPerSide() {
+	return tilesPerSide;
+    }
+
+    private static class Tile {
+	private final Lattice view;
+	private final int x0, x1, y0, y1;
+	private int[] xs, ys;
+
+	private Tile(Lattice view, int x0, int x1, int y0, int y1) {
+	    this.view = view;
+	    this.x0 = x0;
+	    this.x1 = x1;
+	    this.y0 = y0;
+	    this.y1 = y1;
+	}
+
+	// The sites of a sweep are drawn in bulk up front; the updates then draw their own numbers as usual.
+	private void sweep() {
+	    int width = x1 - x0;
+	    int height = y1 - y0;
+	    int size = view.getSize();
+	    if (xs == null || xs.length != width*height) {
+		xs = new int[width*height];
+		ys = new int[width*height];
+	    }
+	    view.rand.nextInts(xs, 0, xs.length, width);
+	    view.rand.nextInts(ys, 0, ys.length, height);
+	    UpdateRule rule = view.getUpdateRule();
+	    for (int i=0; i<xs.length; i++) {
+		rule.update((y0 + ys[i])*size + x0 + xs[i]);
+	    }
+	}
+    }
+
+    // Sweeps tiles[from] through tiles[to-1], splitting the range so idle workers can steal half of it.
+    private static class TileTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final List<Tile> tiles;
+	private final int from, to;
+
+	private TileTask(List<Tile> tiles, int from, int to) {
+	    this.tiles = tiles;
+	    this.from = from;
+	    this.to = to;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from == 1) {
+		tiles.get(from).sweep();
+		return;
+	    }
+	    int middle = (from + to) >>> 1;
+	    invokeAll(new TileTask(tiles, from, middle), new TileTask(tiles, middle, to));
+	}
+    }
+}
@@ -14,41 +14,122 @@ import javax.swing.JOptionPane;
 public class PhaseDiagramDriver {
     private final static int PIXELS_PER_GRIDPOINT = 36;// must be a perfect square
     private final static String IMAGE_FILE_EXTENSION = "png";
+    private final static int ADAPTIVE_COARSE_RESOLUTION = 5;
+    private final static double ADAPTIVE_TOLERANCE = 0.05;
+    private final static int THREE_D_SIZE = 32;
     public static void main(String[] args) {
 	boolean doDisplay = false;
+	boolean adaptive = false;
+	boolean threeD = false;
+	boolean moore = false;
+	File checkpointDirectory = null;
+	File recordDirectory = null;
+	File structureDirectory = null;
+	File clusterDirectory = null;
+	double stationarityTolerance = 0;
+	double burnIn = -1;
+	int engineThreads = 1;
 	if (Arrays.asList(args).contains("-h") || Arrays.asList(args).contains("-?")) {
-	    System.out.println("Usage: $ PhaseDiagramsExe [-d] [-h][-?] [a12 a21 resolution stop_time update_method]");
+	    System.out.println("Usage: $ PhaseDiagramsExe [-d] [-a] [-3] [-m] [-c directory] [-r directory] [-s directory] [-k directory] [-t tolerance] [-w burn_in] [-p threads] [-h][-?] [a12 a21 resolution stop_time update_method [threads [seed [splitmix|xoroshiro]]]]");
+	    System.out.println("  -a refines the diagram adaptively around the bifurcation lines, from a " + ADAPTIVE_COARSE_RESOLUTION + " x " + ADAPTIVE_COARSE_RESOLUTION + " grid; resolution must then be 2 to " + (ADAPTIVE_COARSE_RESOLUTION - 1) + ", or 1 more than " + (ADAPTIVE_COARSE_RESOLUTION - 1) + " times a power of two (" + ADAPTIVE_COARSE_RESOLUTION + ", " + (2*ADAPTIVE_COARSE_RESOLUTION - 1) + ", " + (4*ADAPTIVE_COARSE_RESOLUTION - 3) + ", ...).");
+	    System.out.println("  -3 simulates " + THREE_D_SIZE + "^3 lattices instead of 2D ones.");
+	    System.out.println("  -m uses the Moore neighborhood (8 neighbors in 2D, 26 in 3D) instead of the von Neumann one (4 or 6).");
+	    System.out.println("  -c saves every point's run in the directory as it goes; rerunning with the same arguments resumes the sweep.");
+	    System.out.println("  -r records every point's strategy counts over time in the directory, one CSV file per point.");
+	    System.out.println("  -s writes every point's final correlation function and structure factor in the directory, one CSV file per point, and saves an image of the domain lengths.");
+	    System.out.println("  -k writes every point's final cluster statistics in the directory, one CSV file per point.");
+	    System.out.println("  -t stops every point's run once its proportion is stationary to within the tolerance (e.g. " + StationarityDetector.DEFAULT_TOLERANCE + ").");
+	    System.out.println("  -w averages every point's proportion over its run from the burn-in time on, rather than reading it off the last step.");
+	    System.out.println("  -p runs each point's lattice on that many threads, split into tiles, if it's 2D and at least " + Lattice.PARALLEL_MIN_SIZE + " sites a side.");
 	    System.exit(0);
 	}
 	if (Arrays.asList(args).contains("-d")) {
 	    doDisplay = true;
-	    String[] tempArgs = new String[args.length-1];
-	    int offset = 0;
-	    for (int i=0; i<args.length; i++) {
-		if (args[i].equals("-d"))
-		    offset++;
-		else
-		    tempArgs[i-offset] = args[i];
-	    }
-	    args = tempArgs;
+	    args = removeFlag(args, "-d");
+	}
+	if (Arrays.asList(args).contains("-a")) {
+	    adaptive = true;
+	    args = removeFlag(args, "-a");
+	}
+	if (Arrays.asList(args).contains("-3")) {
+	    threeD = true;
+	    args = removeFlag(args, "-3");
+	}
+	if (Arrays.asList(args).contains("-m")) {
+	    moore = true;
+	    args = removeFlag(args, "-m");
+	}
+	if (Arrays.asList(args).contains("-c")) {
+	    checkpointDirectory = getDirectory(args, "-c");
+	    args = removeOption(args, "-c");
+	}
+	if (Arrays.asList(args).contains("-r")) {
+	    recordDirectory = getDirectory(args, "-r");
+	    args = removeOption(args, "-r");
+	}
+	if (Arrays.asList(args).contains("-s")) {
+	    structureDirectory = getDirectory(args, "-s");
+	    args = removeOption(args, "-s");
+	}
+	if (Arrays.asList(args).contains("-k")) {
+	    clusterDirectory = getDirectory(args, "-k");
+	    args = removeOption(args, "-k");
+	}
+	if (Arrays.asList(args).contains("-t")) {
+	    stationarityTolerance = Double.parseDouble(getValue(args, "-t"));
+	    args = removeOption(args, "-t");
+	}
+	if (Arrays.asList(args).contains("-w")) {
+	    burnIn = Double.parseDouble(getValue(args, "-w"));
+	    args = removeOption(args, "-w");
+	}
+	if (Arrays.asList(args).contains("-p")) {
+	    engineThreads = Integer.parseInt(getValue(args, "-p"));
+	    args = removeOption(args, "-p");
 	}
 	PhaseDiagramIterator iterator = null;
 	if (args.length >= 0 && args.length < 5) {
 	    iterator = new PhaseDiagramIterator();
+	    setLattice(iterator, threeD, moore);
+	    iterator.setCheckpointDirectory(checkpointDirectory);
+	    iterator.setRecordDirectory(recordDirectory);
+	    iterator.setStructureDirectory(structureDirectory);
+	    iterator.setClusterDirectory(clusterDirectory);
+	    iterator.setStationarityTolerance(stationarityTolerance);
+	    iterator.setBurnIn(burnIn);
+	    iterator.setEngineThreads(engineThreads);
 	    System.out.println("Iterator created... starting...");
-	    iterator.iterate();
+	    iterate(iterator, adaptive);
 	}
 	else if (args.length >= 5) {
 	    iterator = new PhaseDiagramIterator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4]));
-	    System.out.println("Iterator created... starting...");
+	    if (args.length >= 6)
+		iterator.setThreads(Integer.parseInt(args[5]));
+	    if (args.length >= 7)
+		iterator.setSeed(Long.parseLong(args[6]));
+	    if (args.length >= 8)
+		iterator.setRandomType(args[7]);
+	    setLattice(iterator, threeD, moore);
+	    iterator.setCheckpointDirectory(checkpointDirectory);
+	    iterator.setRecordDirectory(recordDirectory);
+	    iterator.setStructureDirectory(structureDirectory);
+	    iterator.setClusterDirectory(clusterDirectory);
+	    iterator.setStationarityTolerance(stationarityTolerance);
+	    iterator.setBurnIn(burnIn);
+	    iterator.setEngineThreads(engineThreads);
+	    System.out.println("Iterator created (seed " + iterator.getSeed() + ", " + iterator.getThreads() + " threads)... starting...");
 	    System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS").format(new Date()));
-	    iterator.iterate();
+	    iterate(iterator, adaptive);
 	    System.out.println(new SimpleDateFormat("yyyy/MM/dd HH:mm:ss.SSS").format(new Date()));
 	}
 	else {
 	    System.err.println("Requires four arguments.");
 	    System.exit(1);
 	}
+	if (stationarityTolerance > 0)
+	    System.out.println("Mean convergence time: " + getMean(iterator.getConvergenceTimes()) + " of " + iterator.getStopTime() + ".");
+	if (burnIn >= 0)
+	    System.out.println("Mean error bar: " + getMean(iterator.getProportionErrors()) + "; largest: " + getMax(iterator.getProportionErrors()) + ".");
 	String partialPath = "/Users/andy/Desktop/imageTests/img";
 	String path = partialPath;
 	boolean ok = false;
@@ -59,6 +140,12 @@ public class PhaseDiagramDriver {
 		ok = true;
 	}
 	BufferedImage image = generateAndSaveImage(iterator.getProportions(), new File(path+"."+IMAGE_FILE_EXTENSION));
+	// The interface density goes alongside: dark where the strategies coexist, light where they segregate.
+	generateAndSaveImage(iterator.getInterfaceDensities(), new File(path+"-interface."+IMAGE_FILE_EXTENSION));
+	// And, if it was measured, the domain length, as a fraction of the largest one the lattice can hold: dark
+	// where domains are large.
+	if (structureDirectory != null)
+	    generateAndSaveImage(getDomainLengthFractions(iterator), new File(path+"-length."+IMAGE_FILE_EXTENSION));
 	if (doDisplay) {
 	    for(int i=0; i<args.length; i++)
 		System.out.print(args[i] + " ");
@@ -67,6 +154,95 @@ public class PhaseDiagramDriver {
 	System.out.println("\nFile saved successfully. Exiting...");
     }
 
+    private static void iterate(PhaseDiagramIterator iterator, boolean adaptive) {
+	if (adaptive)
+	    iterator.iterateAdaptive(Math.min(ADAPTIVE_COARSE_RESOLUTION, iterator.getResolution()), ADAPTIVE_TOLERANCE);
+	else
+	    iterator.iterate();
+    }
+
+    private static void setLattice(PhaseDiagramIterator iterator, boolean threeD, boolean moore) {
+	if (threeD) {
+	    iterator.setDimensions(3);
+	    iterator.setSize(THREE_D_SIZE);
+	}
+	if (moore)
+	    iterator.setNeighborhood(Lattice.NEIGHBORHOOD_MOORE);
+    }
+
+    // The domain lengths over half the lattice's size, at most 1.
+    private static double[][] getDomainLengthFractions(PhaseDiagramIterator iterator) {
+	double[][] lengths = iterator.getDomainLengths();
+	double[][] fractions = new double[lengths.length][lengths.length];
+	for (int i=0; i<lengths.length; i++) {
+	    for (int j=0; j<lengths.length; j++) {
+		fractions[i][j] = Math.min(1, lengths[i][j] / (iterator.getSize() / 2));
+	    }
+	}
+	return fractions;
+    }
+
+    private static String[] removeFlag(String[] args, String flag) {
+	String[] tempArgs = new String[args.length-1];
+	int offset = 0;
+	for (int i=0; i<args.length; i++) {
+	    if (args[i].equals(flag))
+		offset++;
+	    else
+		tempArgs[i-offset] = args[i];
+	}
+	return tempArgs;
+    }
+
+    private static double getMean(double[][] values) {
+	double sum = 0;
+	for (int i=0; i<values.length; i++) {
+	    for (int j=0; j<values[i].length; j++) {
+		sum += values[i][j];
+	    }
+	}
+	return sum / (values.length * values.length);
+    }
+
+    private static double getMax(double[][] values) {
+	double max = Double.NEGATIVE_INFINITY;
+	for (int i=0; i<values.length; i++) {
+	    for (int j=0; j<values[i].length; j++) {
+		max = Math.max(max, values[i][j]);
+	    }
+	}
+	return max;
+    }
+
+    // Returns the value that follows (flag).
+    private static String getValue(String[] args, String flag) {
+	int index = Arrays.asList(args).indexOf(flag);
+	if (index + 1 >= args.length) {
+	    System.err.println(flag + " requires a value.");
+	    System.exit(1);
+	}
+	return args[index + 1];
+    }
+
+    // Returns the directory that follows (flag), creating it if need be.
+    private static File getDirectory(String[] args, String flag) {
+	File directory = new File(getValue(args, flag));
+	if (!directory.isDirectory() && !directory.mkdirs()) {
+	    System.err.println("Couldn't create " + directory + ". EXITING.");
+	    System.exit(1);
+	}
+	return directory;
+    }
+
+    // Removes (flag) and the value that follows it.
+    private static String[] removeOption(String[] args, String flag) {
+	int index = Arrays.asList(args).indexOf(flag);
+	String[] tempArgs = new String[args.length-2];
+	System.arraycopy(args, 0, tempArgs, 0, index);
+	System.arraycopy(args, index+2, tempArgs, index, args.length - index-2);
+	return tempArgs;
+    }
+
     public static void displayImage(BufferedImage image) {
 	ImageIcon icon = new ImageIcon(image);
         JLabel label = new JLabel(icon, JLabel.CENTER);
@@ -1,6 +1,19 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class PhaseDiagramIterator {
     // DEFAULTS
@@ -10,14 +23,69 @@ public class PhaseDiagramIterator {
     private final double DEFAULT_A21 = 3;
     private final int DEFAULT_STOP_TIME = 100;
     private final int DEFAULT_UPDATE_METHOD = 0;
+    private final int DEFAULT_THREADS = Runtime.getRuntime().availableProcessors();
+    private final double DEFAULT_CHECKPOINT_INTERVAL = 10;
+    private final double DEFAULT_RECORD_INTERVAL = 1;
 
     // @param variables
     private double a12, a21, width;
     private int resolution, stopTime, updateMethod;
+    private int threads;
+    // The threads each point's own lattice is run on; more than 1 uses Lattice.createParallelEngine().
+    private int engineThreads = 1;
+    private long seed;
+    private String randomType = RandomSource.DEFAULT_TYPE;
+    private int size = Lattice.DEFAULT_SIZE;
+    private int dimensions = 2;
+    private int neighborhood = Lattice.NEIGHBORHOOD_VON_NEUMANN;
     private double[][] payoffMatrix;
+    // Where each point's run is saved as it goes, or null not to save it, and how often, in units of time.
+    private File checkpointDirectory;
+    private double checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    // Where each point's strategy counts are recorded over time, as CSV, or null not to record them.
+    private File recordDirectory;
+    private double recordInterval = DEFAULT_RECORD_INTERVAL;
+    // Where each point's final correlation function and structure factor are written, or null not to write them
+    // (or to measure the domain lengths at all).
+    private File structureDirectory;
+    // Each worker thread keeps one analyzer for all the points it runs, so its buffers are allocated once.
+    private final ThreadLocal<StructureFactorAnalyzer> analyzers = new ThreadLocal<StructureFactorAnalyzer>() {
+	@Override
+	protected StructureFactorAnalyzer initialValue() {
+	    // The points already run in parallel, so each analyzes its own lattice on its own thread.
+	    return new StructureFactorAnalyzer(1);
+	}
+    };
+    // Where each point's final cluster statistics are written, or null not to analyze its clusters.
+    private File clusterDirectory;
+    private final ThreadLocal<ClusterAnalyzer> clusterAnalyzers = new ThreadLocal<ClusterAnalyzer>() {
+	@Override
+	protected ClusterAnalyzer initialValue() {
+	    return new ClusterAnalyzer(1);
+	}
+    };
+    // A point's run stops once its proportions are stationary to within (stationarityTolerance), or 0 to always
+    // run to the stop time; see StationarityDetector.
+    private double stationarityTolerance;
+    // Each point's proportion black and interface density are averaged over its run from time (burnIn) on, every
+    // (averageInterval) units of time, or read off its last step if (burnIn) is negative; see ObservableAccumulator.
+    private double burnIn = -1;
+    private double averageInterval = ObservableAccumulator.DEFAULT_INTERVAL;
     private Vector<Double> xRange, yRange;
-    private Lattice lattice;
     private double[][] proportions;
+    // The interface density at the end of each point's run; see Lattice.getInterfaceDensity().
+    private double[][] interfaceDensities;
+    // The domain length at the end of each point's run, if there's a structure directory, and otherwise 0; see
+    // StructureFactorAnalyzer.getCharacteristicLength().
+    private double[][] domainLengths;
+    // The time each point's proportions settled, or the time its run ended if they didn't (or it wasn't checked).
+    private double[][] convergenceTimes;
+    // The error bar of each point's averaged proportion black, corrected for autocorrelation; 0 if it wasn't averaged.
+    private double[][] proportionErrors;
+
+    // Timing statistics, shared by the worker threads.
+    private long minTime, maxTime, avgTime;
+    private int count;
 
 
     public PhaseDiagramIterator() {
@@ -27,6 +95,8 @@ public class PhaseDiagramIterator {
 	resolution = DEFAULT_RESOLUTION;
 	stopTime = DEFAULT_STOP_TIME;
 	updateMethod = DEFAULT_UPDATE_METHOD; 
+	threads = DEFAULT_THREADS;
+	seed = RandomSource.randomSeed();
 	xRange = new Vector<Double>();
 	yRange = new Vector<Double>();
 	proportions = new double[resolution][resolution];
@@ -53,6 +123,8 @@ public class PhaseDiagramIterator {
 	this.resolution = resolution; 
 	this.stopTime = stopTime;
 	this.updateMethod = updateMethod;
+	threads = DEFAULT_THREADS;
+	seed = RandomSource.randomSeed();
 	xRange = new Vector<Double>(resolution);
 	yRange = new Vector<Double>(resolution);
 	proportions = new double[resolution][resolution];
@@ -71,41 +143,389 @@ public class PhaseDiagramIterator {
     }
 
     // Method iterates through the established payoff matrices and records the resulting
-    // proportion black at each step.
+    // proportion black at each step. The points are independent, so they are simulated in parallel
+    // on (threads) threads; each gets its own seed, derived from (seed) and its position in the grid.
     public void iterate() {
-	long baseTime = System.currentTimeMillis();
-	long minTime = Integer.MAX_VALUE;
-	long maxTime = Integer.MIN_VALUE;
-	long avgTime = 0;
-	int count = 0;
-	for (int i=0; i<resolution; i++) {
-	    for (int j=0; j<resolution; j++) {
-		payoffMatrix[0][0] = xRange.get(i);
-		payoffMatrix[1][1] = yRange.get(j);
-		lattice = new Lattice(2, 2, 1, new double[] {1.0,1.0}, updateMethod, payoffMatrix);
-		int time = 0;
-		boolean stop = false;
-		for (int k=0; time <= stopTime && !stop; k++) {
-		    time = (int) ((double) k / (double) (lattice.getMaxRate()*lattice.getSize()*lattice.getSize()));
-		    if (lattice.getProportionOf(0) == 1.0 || lattice.getProportionOf(1) == 1.0)
-			stop = true;
-		    lattice.chooseAndUpdateNode();
-		    if (k % 10000000 == 0)
-			System.out.println(k);
+	minTime = Integer.MAX_VALUE;
+	maxTime = Integer.MIN_VALUE;
+	avgTime = 0;
+	count = 0;
+	interfaceDensities = new double[resolution][resolution];
+	domainLengths = new double[resolution][resolution];
+	convergenceTimes = new double[resolution][resolution];
+	proportionErrors = new double[resolution][resolution];
+	int[] points = new int[resolution*resolution];
+	for (int k=0; k<points.length; k++) {
+	    points[k] = k;
+	}
+	ForkJoinPool pool = new ForkJoinPool(threads);
+	try {
+	    pool.invoke(new SweepTask(points, 0, points.length, proportions));
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    // Builds the phase diagram adaptively: starting from a (coarseResolution) x (coarseResolution) grid, only
+    // the cells whose corners disagree by more than (tolerance) are refined, down to the full resolution.
+    // Each level's new points are simulated in parallel. The interpolated diagram is stored in (proportions).
+    public PhaseDiagramQuadtree iterateAdaptive(int coarseResolution, double tolerance) {
+	minTime = Integer.MAX_VALUE;
+	maxTime = Integer.MIN_VALUE;
+	avgTime = 0;
+	count = 0;
+	PhaseDiagramQuadtree quadtree = new PhaseDiagramQuadtree(resolution, coarseResolution, tolerance);
+	double[][] results = new double[resolution][resolution];
+	interfaceDensities = new double[resolution][resolution];
+	domainLengths = new double[resolution][resolution];
+	convergenceTimes = new double[resolution][resolution];
+	proportionErrors = new double[resolution][resolution];
+	ForkJoinPool pool = new ForkJoinPool(threads);
+	try {
+	    do {
+		int[] points = quadtree.getPendingPoints();
+		pool.invoke(new SweepTask(points, 0, points.length, results));
+		for (int k=0; k<points.length; k++) {
+		    quadtree.setValue(points[k] / resolution, points[k] % resolution, results[points[k] / resolution][points[k] % resolution]);
 		}
-		proportions[i][j] = lattice.getProportionOf(0);
-
-		// Time stuff
-		long theTime = System.currentTimeMillis() - baseTime;
-		avgTime = (count * avgTime + theTime) / ++count;
-		if (theTime < minTime)
-		    minTime = theTime;
-		if (theTime > maxTime)
-		    maxTime = theTime;
-
-		System.out.println(count + ": " + "Delta: " + theTime + "; Min: " + minTime + "; Max: " + maxTime + "; Average: " + avgTime + ".");
-		baseTime = System.currentTimeMillis();
+	    } while (quadtree.refine() > 0);
+	} finally {
+	    pool.shutdown();
+	}
+	System.out.println("Simulated " + quadtree.getSimulatedPoints() + " of " + resolution*resolution + " points.");
+	proportions = quadtree.rasterize();
+	interfaceDensities = quadtree.rasterize(interfaceDensities);
+	domainLengths = quadtree.rasterize(domainLengths);
+	convergenceTimes = quadtree.rasterize(convergenceTimes);
+	proportionErrors = quadtree.rasterize(proportionErrors);
+	return quadtree;
+    }
+
+    // Simulates the single grid point (i, j) and returns the final proportion black. The final interface density,
+    // which the lattice keeps as it goes, and domain length, if there's a structure directory, are stored in
+    // (interfaceDensities) and (domainLengths) on the side.
+    //
+    // With a checkpoint directory, the run is saved there every (checkpointInterval) units of time and once more
+    // when it ends, and a run that finds its checkpoint picks up where the last one left off (or just reads off
+    // the result of a finished point). A sweep that was killed can therefore be restarted with the same arguments
+    // and directory, and gives exactly the results it would have given uninterrupted. The checkpoints are taken at
+    // fixed times, rather than every so many minutes, because saving a run rebuilds some of the engine's
+    // structures (see SimulationEngine.getState()), and the results would otherwise depend on when that happened.
+    //
+    // With a stationarity tolerance, a run whose proportion has settled stops before the stop time, and returns
+    // the stationary proportion, the average of the last few units of time, rather than the final one. The
+    // detector's state is saved next to the checkpoint, so a resumed run stops at the same point.
+    //
+    // With a burn-in time, the proportion black and the interface density returned are averages over the run from
+    // then on, rather than single samples, and the proportion's error bar is stored in (proportionErrors). A run
+    // that ends before the burn-in, as one that fixates early does, falls back on the above.
+    protected double simulatePoint(int i, int j) {
+	File checkpoint = checkpointDirectory != null ? new File(checkpointDirectory, "point-" + i + "-" + j + ".ckpt") : null;
+	boolean resumed = checkpoint != null && checkpoint.exists();
+	SimulationEngine engine;
+	if (resumed)
+	    engine = readCheckpoint(checkpoint);
+	else
+	    engine = createPointEngine(i, j);
+	Lattice lattice = engine.getLattice();
+	ProportionRecorder recorder = null;
+	if (recordDirectory != null)
+	    recorder = createRecorder(new File(recordDirectory, "point-" + i + "-" + j + ".csv"), engine, resumed);
+	if (recorder != null)
+	    recorder.update(engine);
+	long[][] runState = resumed ? readRunState(checkpoint, engine) : null;
+	StationarityDetector detector = null;
+	if (stationarityTolerance > 0)
+	    detector = createDetector(runState);
+	ObservableAccumulator accumulator = null;
+	if (burnIn >= 0)
+	    accumulator = createAccumulator(runState);
+	double nextCheckpoint = getNextCheckpointTime(engine);
+	for (long k=0; (int) engine.getTime() <= stopTime; k++) {
+	    if (lattice.getProportionOf(0) == 1.0 || lattice.getProportionOf(1) == 1.0)
+		break;
+	    if (detector != null && detector.isStationary())
+		break;
+	    if (!engine.step())
+		break;
+	    if (recorder != null)
+		recorder.update(engine);
+	    if (detector != null)
+		detector.update(engine);
+	    if (accumulator != null)
+		accumulator.update(engine);
+	    if (k % 10000000 == 0)
+		System.out.println(k);
+	    if (checkpoint != null && engine.getTime() >= nextCheckpoint) {
+		// The series must reach the checkpoint, since a resumed run only adds what comes after it.
+		if (recorder != null)
+		    recorder.sync();
+		writeCheckpoint(checkpoint, engine, detector, accumulator);
+		nextCheckpoint = getNextCheckpointTime(engine);
+	    }
+	}
+	if (recorder != null) {
+	    recorder.sample(engine);
+	    recorder.close();
+	}
+	if (checkpoint != null)
+	    writeCheckpoint(checkpoint, engine, detector, accumulator);
+	if (engine instanceof ParallelTileEngine)
+	    ((ParallelTileEngine) engine).shutdown();
+	interfaceDensities[i][j] = lattice.getInterfaceDensity();
+	if (structureDirectory != null) {
+	    StructureFactorAnalyzer analyzer = analyzers.get();
+	    analyzer.analyze(lattice);
+	    // A uniform lattice's domain length is infinite; it's capped at the lattice's size, so it can be interpolated.
+	    domainLengths[i][j] = Math.min(size, analyzer.getCharacteristicLength());
+	    writeStructure(new File(structureDirectory, "point-" + i + "-" + j + "-structure.csv"), analyzer);
+	}
+	if (clusterDirectory != null) {
+	    ClusterAnalyzer analyzer = clusterAnalyzers.get();
+	    analyzer.analyze(lattice);
+	    writeClusters(new File(clusterDirectory, "point-" + i + "-" + j + "-clusters.csv"), analyzer);
+	}
+	convergenceTimes[i][j] = engine.getTime();
+	if (detector != null && detector.isStationary()) {
+	    convergenceTimes[i][j] = detector.getConvergenceTime();
+	    System.out.println("Point (" + i + ", " + j + ") was stationary from time " + detector.getConvergenceTime() + " of " + stopTime + ".");
+	}
+	if (accumulator != null && accumulator.getNumSamples() > 0) {
+	    interfaceDensities[i][j] = accumulator.getMean(1);
+	    proportionErrors[i][j] = accumulator.getError(0);
+	    return accumulator.getMean(0);
+	}
+	if (detector != null && detector.isStationary())
+	    return detector.getMean(0);
+	return lattice.getProportionOf(0);
+    }
+
+    // A point that's picked up from its checkpoint continues its series rather than starting a new one.
+    private ProportionRecorder createRecorder(File file, SimulationEngine engine, boolean resumed) {
+	try {
+	    if (resumed)
+		return ProportionRecorder.resume(file, 2, recordInterval, false, engine.getTime());
+	    return new ProportionRecorder(file, 2, recordInterval, false);
+	} catch (IOException e) {
+	    System.err.println("Couldn't record to " + file + ": " + e.getMessage() + ". EXITING.");
+	    System.exit(1);
+	    return null;
+	}
+    }
+
+    private SimulationEngine createPointEngine(int i, int j) {
+	double[][] pointPayoffMatrix = new double[2][2];
+	pointPayoffMatrix[0][0] = xRange.get(i);
+	pointPayoffMatrix[0][1] = payoffMatrix[0][1];
+	pointPayoffMatrix[1][0] = payoffMatrix[1][0];
+	pointPayoffMatrix[1][1] = yRange.get(j);
+	// Every point is a two-strategy game, so a 2D nearest-neighbor lattice is packed one bit per site, unless it's
+	// to be run on several threads, which a packed lattice can't be.
+	RandomSource rand = RandomSource.create(randomType, getPointSeed(i, j));
+	Lattice lattice;
+	if (dimensions == 2 && neighborhood == Lattice.NEIGHBORHOOD_VON_NEUMANN && engineThreads <= 1) {
+	    lattice = new PackedLattice(size, new double[] {1.0,1.0}, updateMethod, pointPayoffMatrix, rand);
+	}
+	else {
+	    lattice = new Lattice(size, dimensions, 2, 1, new double[] {1.0,1.0}, updateMethod, pointPayoffMatrix, rand);
+	    lattice.setNeighborhood(neighborhood);
+	}
+	return lattice.createParallelEngine(engineThreads);
+    }
+
+    // The first multiple of (checkpointInterval) after the engine's current time.
+    private double getNextCheckpointTime(SimulationEngine engine) {
+	return (Math.floor(engine.getTime() / checkpointInterval) + 1) * checkpointInterval;
+    }
+
+    private SimulationEngine readCheckpoint(File checkpoint) {
+	try {
+	    return LatticeCheckpoint.read(checkpoint);
+	} catch (IOException e) {
+	    System.err.println("Couldn't read " + checkpoint + ": " + e.getMessage() + ". EXITING.");
+	    System.exit(1);
+	    return null;
+	}
+    }
+
+    // A failed checkpoint only costs the progress since the last one, so the run goes on. The state of the
+    // detector and the accumulator is written first, with the time it belongs to, so a state left behind by a
+    // crash in between is told apart.
+    private void writeCheckpoint(File checkpoint, SimulationEngine engine, StationarityDetector detector, ObservableAccumulator accumulator) {
+	try {
+	    if (detector != null || accumulator != null)
+		writeRunState(getRunStateFile(checkpoint), engine.getTime(), new long[][] {detector != null ? detector.getState() : new long[0],
+											  accumulator != null ? accumulator.getState() : new long[0]});
+	    LatticeCheckpoint.write(checkpoint, engine);
+	} catch (IOException e) {
+	    System.err.println("Couldn't write " + checkpoint + ": " + e.getMessage());
+	}
+    }
+
+    private File getRunStateFile(File checkpoint) {
+	return new File(checkpoint.getPath().replaceFirst("\\.ckpt$", ".stat"));
+    }
+
+    // Returns the saved states of the detector and the accumulator of a resumed run, or null if they weren't saved
+    // at the checkpoint's time. A run that has to start them afresh stops later, or averages fewer samples, than
+    // it would have uninterrupted, but is otherwise unharmed.
+    private long[][] readRunState(File checkpoint, SimulationEngine engine) {
+	File file = getRunStateFile(checkpoint);
+	if (!file.exists())
+	    return null;
+	try {
+	    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+	    try {
+		double time = in.readDouble();
+		long[][] states = new long[2][];
+		for (int s=0; s<states.length; s++) {
+		    states[s] = new long[in.readInt()];
+		    for (int k=0; k<states[s].length; k++) {
+			states[s][k] = in.readLong();
+		    }
+		}
+		if (time == engine.getTime())
+		    return states;
+		System.err.println(file + " doesn't match its checkpoint; starting its statistics afresh.");
+	    } finally {
+		in.close();
+	    }
+	} catch (IOException e) {
+	    System.err.println("Couldn't read " + file + ": " + e.getMessage() + "; starting its statistics afresh.");
+	}
+	return null;
+    }
+
+    // Written to a temporary file and renamed over the old one, like the checkpoint itself.
+    private void writeRunState(File file, double time, long[][] states) throws IOException {
+	File temp = new File(file.getPath() + ".tmp");
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+	try {
+	    out.writeDouble(time);
+	    for (int s=0; s<states.length; s++) {
+		out.writeInt(states[s].length);
+		for (int k=0; k<states[s].length; k++) {
+		    out.writeLong(states[s][k]);
+		}
+	    }
+	} finally {
+	    out.close();
+	}
+	Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private StationarityDetector createDetector(long[][] runState) {
+	StationarityDetector detector = new StationarityDetector(2, stationarityTolerance);
+	if (runState != null && runState[0].length > 0) {
+	    try {
+		detector.setState(runState[0]);
+	    } catch (IllegalArgumentException e) {
+		System.err.println("A saved stationarity detector doesn't fit; checking stationarity afresh.");
+	    }
+	}
+	return detector;
+    }
+
+    // Averages the proportion black and the interface density from (burnIn) on.
+    private ObservableAccumulator createAccumulator(long[][] runState) {
+	Observable[] observables = new Observable[] {ObservableAccumulator.proportionOf(0), ObservableAccumulator.interfaceDensity()};
+	ObservableAccumulator accumulator = new ObservableAccumulator(observables, burnIn, averageInterval);
+	if (runState != null && runState[1].length > 0) {
+	    try {
+		accumulator.setState(runState[1]);
+	    } catch (IllegalArgumentException e) {
+		System.err.println("A saved accumulator doesn't fit; averaging afresh.");
+	    }
+	}
+	return accumulator;
+    }
+
+    // Writes "r,correlation,structureFactor" rows, for r (and |k|, in units of 2*pi/size) from 0 to size/2.
+    private void writeStructure(File file, StructureFactorAnalyzer analyzer) {
+	double[] correlation = analyzer.getCorrelation();
+	double[] structureFactor = analyzer.getStructureFactor();
+	try {
+	    PrintWriter writer = new PrintWriter(file);
+	    writer.println("r,correlation,structureFactor");
+	    for (int b=0; b<correlation.length; b++) {
+		writer.println(b + "," + correlation[b] + "," + structureFactor[b]);
+	    }
+	    writer.close();
+	} catch (IOException e) {
+	    System.err.println("Couldn't write " + file + ": " + e.getMessage());
+	}
+    }
+
+    // Writes "strategy,clusters,largest,mean,histogram..." rows, one per strategy, where histogram column k counts
+    // the clusters of 2^k to 2^(k+1) - 1 sites.
+    private void writeClusters(File file, ClusterAnalyzer analyzer) {
+	try {
+	    PrintWriter writer = new PrintWriter(file);
+	    writer.print("strategy,clusters,largest,mean");
+	    for (int k=0; k<32; k++) {
+		writer.print(",size" + (1L << k));
+	    }
+	    writer.println();
+	    for (int s=0; s<2; s++) {
+		writer.print(s + "," + analyzer.getNumClusters(s) + "," + analyzer.getLargestClusterSize(s) + "," + analyzer.getMeanClusterSize(s));
+		long[] histogram = analyzer.getSizeHistogram(s);
+		for (int k=0; k<histogram.length; k++) {
+		    writer.print("," + histogram[k]);
+		}
+		writer.println();
+	    }
+	    writer.close();
+	} catch (IOException e) {
+	    System.err.println("Couldn't write " + file + ": " + e.getMessage());
+	}
+    }
+
+    // Returns the seed of grid point (i, j). The bits of (seed) and the point's index are mixed with the
+    // SplitMix64 finalizer, so neighboring points get unrelated streams.
+    public long getPointSeed(int i, int j) {
+	return SplitMixRandom.mix(seed + ((long) i*resolution + j + 1) * 0x9E3779B97F4A7C15L);
+    }
+
+    private synchronized void recordTime(long theTime) {
+	avgTime = (count * avgTime + theTime) / ++count;
+	if (theTime < minTime)
+	    minTime = theTime;
+	if (theTime > maxTime)
+	    maxTime = theTime;
+
+	System.out.println(count + ": " + "Delta: " + theTime + "; Min: " + minTime + "; Max: " + maxTime + "; Average: " + avgTime + ".");
+    }
+
+    // Simulates the grid points points[from] through points[to-1], where point (i, j) has index i*resolution + j,
+    // and stores the results in (results). Ranges are split in half until they hold one point, so idle threads
+    // can steal the other halves.
+    private class SweepTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final int[] points;
+	private final int from, to;
+	private final double[][] results;
+
+	private SweepTask(int[] points, int from, int to, double[][] results) {
+	    this.points = points;
+	    this.from = from;
+	    this.to = to;
+	    this.results = results;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from == 0)
+		return;
+	    if (to - from == 1) {
+		long baseTime = System.currentTimeMillis();
+		int i = points[from] / resolution;
+		int j = points[from] % resolution;
+		results[i][j] = simulatePoint(i, j);
+		recordTime(System.currentTimeMillis() - baseTime);
+		return;
 	    }
+	    int middle = (from + to) >>> 1;
+	    invokeAll(new SweepTask(points, from, middle, results), new SweepTask(points, middle, to, results));
 	}
     }
 
@@ -149,6 +569,147 @@ public class PhaseDiagramIterator {
 	this.yRange = yRange;
     }
 
+    public int getThreads() {
+	return threads;
+    }
+
+    public void setThreads(int threads) {
+	this.threads = threads;
+    }
+
+    public int getEngineThreads() {
+	return engineThreads;
+    }
+
+    // Runs each point's lattice on (engineThreads) threads, when it's big enough to split into tiles; see
+    // Lattice.createParallelEngine(). The points themselves still run on (threads) threads.
+    public void setEngineThreads(int engineThreads) {
+	this.engineThreads = engineThreads;
+    }
+
+    public long getSeed() {
+	return seed;
+    }
+
+    public void setSeed(long seed) {
+	this.seed = seed;
+    }
+
+    public String getRandomType() {
+	return randomType;
+    }
+
+    // Chooses the generator of every point's lattice (RandomSource.SPLITMIX or RandomSource.XOROSHIRO).
+    public void setRandomType(String randomType) {
+	this.randomType = randomType;
+    }
+
+    public int getSize() {
+	return size;
+    }
+
+    public void setSize(int size) {
+	this.size = size;
+    }
+
+    public int getDimensions() {
+	return dimensions;
+    }
+
+    // Chooses 2D or 3D lattices. 3D lattices have (size)^3 sites, so (size) should usually be smaller.
+    public void setDimensions(int dimensions) {
+	this.dimensions = dimensions;
+    }
+
+    public int getNeighborhood() {
+	return neighborhood;
+    }
+
+    // Chooses Lattice.NEIGHBORHOOD_VON_NEUMANN (4 or 6 neighbors) or Lattice.NEIGHBORHOOD_MOORE (8 or 26).
+    public void setNeighborhood(int neighborhood) {
+	this.neighborhood = neighborhood;
+    }
+
+    public File getCheckpointDirectory() {
+	return checkpointDirectory;
+    }
+
+    // Saves every point's run in (checkpointDirectory), which must exist, so the sweep can be resumed; see simulatePoint().
+    public void setCheckpointDirectory(File checkpointDirectory) {
+	this.checkpointDirectory = checkpointDirectory;
+    }
+
+    public double getCheckpointInterval() {
+	return checkpointInterval;
+    }
+
+    public void setCheckpointInterval(double checkpointInterval) {
+	this.checkpointInterval = checkpointInterval;
+    }
+
+    public File getRecordDirectory() {
+	return recordDirectory;
+    }
+
+    // Records every point's strategy counts every (recordInterval) units of time, in (recordDirectory), which must
+    // exist, one CSV file per point.
+    public void setRecordDirectory(File recordDirectory) {
+	this.recordDirectory = recordDirectory;
+    }
+
+    public File getStructureDirectory() {
+	return structureDirectory;
+    }
+
+    // Writes every point's final correlation function and structure factor in (structureDirectory), which must
+    // exist, one CSV file per point, and measures its domain length.
+    public void setStructureDirectory(File structureDirectory) {
+	this.structureDirectory = structureDirectory;
+    }
+
+    public File getClusterDirectory() {
+	return clusterDirectory;
+    }
+
+    // Writes every point's final cluster statistics in (clusterDirectory), which must exist, one CSV file per point.
+    public void setClusterDirectory(File clusterDirectory) {
+	this.clusterDirectory = clusterDirectory;
+    }
+
+    public double getStationarityTolerance() {
+	return stationarityTolerance;
+    }
+
+    // Stops every point's run once its proportion is stationary to within (stationarityTolerance), or never if 0.
+    public void setStationarityTolerance(double stationarityTolerance) {
+	this.stationarityTolerance = stationarityTolerance;
+    }
+
+    public double getBurnIn() {
+	return burnIn;
+    }
+
+    // Averages every point's results from time (burnIn) on, or reads them off the last step if it's negative.
+    public void setBurnIn(double burnIn) {
+	this.burnIn = burnIn;
+    }
+
+    public double getAverageInterval() {
+	return averageInterval;
+    }
+
+    public void setAverageInterval(double averageInterval) {
+	this.averageInterval = averageInterval;
+    }
+
+    public double getRecordInterval() {
+	return recordInterval;
+    }
+
+    public void setRecordInterval(double recordInterval) {
+	this.recordInterval = recordInterval;
+    }
+
     public double[][] getProportions() {
 	return proportions;
     }
@@ -156,4 +717,20 @@ public class PhaseDiagramIterator {
     public void setProportions(double[][] proportions) {
 	this.proportions = proportions;
     }
+
+    public double[][] getInterfaceDensities() {
+	return interfaceDensities;
+    }
+
+    public double[][] getDomainLengths() {
+	return domainLengths;
+    }
+
+    public double[][] getConvergenceTimes() {
+	return convergenceTimes;
+    }
+
+    public double[][] getProportionErrors() {
+	return proportionErrors;
+    }
 }
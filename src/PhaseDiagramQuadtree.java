@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// An adaptively refined phase diagram. The diagram lives on the same (resolution) x (resolution) grid of
+// (a11, a22) points as a uniform sweep, but only some of the points are simulated: the grid starts as a coarse
+// grid of cells, and a cell is split into four whenever the proportions at its corners disagree by more than
+// (tolerance), until cells are one grid step across. Cells whose corners agree are never looked inside, so the
+// simulations concentrate on the bifurcation lines, where the outcome changes.
+public class PhaseDiagramQuadtree {
+    private final int resolution;
+    private final double tolerance;
+    // values[i][j] is the simulated proportion at grid point (i, j), or NaN if it hasn't been simulated.
+    private final double[][] values;
+    private List<Cell> leaves;
+    private int simulatedPoints;
+
+    // (resolution)-1 must be (coarseResolution)-1 times a power of two, so that every split lands on grid points.
+    public PhaseDiagramQuadtree(int resolution, int coarseResolution, double tolerance) {
+	int span = coarseResolution > 1 ? (resolution-1) / (coarseResolution-1) : 0;
+	if (span < 1 || span*(coarseResolution-1) != resolution-1 || Integer.bitCount(span) != 1) {
+	    System.err.println("Resolution - 1 must be a power-of-two multiple of the coarse resolution - 1. EXITING.");
+	    System.exit(1);
+	}
+	this.resolution = resolution;
+	this.tolerance = tolerance;
+	values = new double[resolution][resolution];
+	for (int i=0; i<resolution; i++) {
+	    for (int j=0; j<resolution; j++) {
+		values[i][j] = Double.NaN;
+	    }
+	}
+	leaves = new ArrayList<Cell>();
+	for (int i=0; i<coarseResolution-1; i++) {
+	    for (int j=0; j<coarseResolution-1; j++) {
+		leaves.add(new Cell(i*span, j*span, span));
+	    }
+	}
+    }
+
+    // Returns the indices (i*resolution + j) of the corners of the current cells that haven't been simulated yet.
+    public int[] getPendingPoints() {
+	boolean[] pending = new boolean[resolution*resolution];
+	int numPending = 0;
+	for (Cell cell : leaves) {
+	    for (int c=0; c<4; c++) {
+		int i = cell.i0 + (c & 1)*cell.span;
+		int j = cell.j0 + (c >> 1)*cell.span;
+		if (Double.isNaN(values[i][j]) && !pending[i*resolution + j]) {
+		    pending[i*resolution + j] = true;
+		    numPending++;
+		}
+	    }
+	}
+	int[] points = new int[numPending];
+	for (int k=0, n=0; k<pending.length; k++) {
+	    if (pending[k])
+		points[n++] = k;
+	}
+	return points;
+    }
+
+    public void setValue(int i, int j, double value) {
+	if (Double.isNaN(values[i][j]))
+	    simulatedPoints++;
+	values[i][j] = value;
+    }
+
+    // Splits every cell whose corners disagree, and returns how many were split. All corners must have been set.
+    public int refine() {
+	List<Cell> newLeaves = new ArrayList<Cell>();
+	int split = 0;
+	for (Cell cell : leaves) {
+	    if (cell.span > 1 && disagrees(cell)) {
+		int half = cell.span / 2;
+		newLeaves.add(new Cell(cell.i0, cell.j0, half));
+		newLeaves.add(new Cell(cell.i0 + half, cell.j0, half));
+		newLeaves.add(new Cell(cell.i0, cell.j0 + half, half));
+		newLeaves.add(new Cell(cell.i0 + half, cell.j0 + half, half));
+		split++;
+	    }
+	    else {
+		newLeaves.add(cell);
+	    }
+	}
+	leaves = newLeaves;
+	return split;
+    }
+
+    private boolean disagrees(Cell cell) {
+	double min = Double.POSITIVE_INFINITY;
+	double max = Double.NEGATIVE_INFINITY;
+	for (int c=0; c<4; c++) {
+	    double value = values[cell.i0 + (c & 1)*cell.span][cell.j0 + (c >> 1)*cell.span];
+	    min = Math.min(min, value);
+	    max = Math.max(max, value);
+	}
+	return max - min > tolerance;
+    }
+
+    // Fills in the whole grid: simulated points keep their values, and the points inside a cell are
+    // interpolated bilinearly from its corners, which agree to within the tolerance.
+    public double[][] rasterize() {
+	return rasterize(values);
+    }
+
+    // Fills in the whole grid of another quantity measured at the same simulated points, (values), the same way.
+    // The cells were refined on the proportions, so the other quantity isn't guaranteed to agree within them.
+    // Which points were simulated is read off the proportions, so (values) may hold anything at the others.
+    public double[][] rasterize(double[][] values) {
+	double[][] result = new double[resolution][resolution];
+	for (Cell cell : leaves) {
+	    double v00 = values[cell.i0][cell.j0];
+	    double v10 = values[cell.i0 + cell.span][cell.j0];
+	    double v01 = values[cell.i0][cell.j0 + cell.span];
+	    double v11 = values[cell.i0 + cell.span][cell.j0 + cell.span];
+	    for (int di=0; di<=cell.span; di++) {
+		double u = (double) di / cell.span;
+		for (int dj=0; dj<=cell.span; dj++) {
+		    double v = (double) dj / cell.span;
+		    result[cell.i0 + di][cell.j0 + dj] = (1-u)*(1-v)*v00 + u*(1-v)*v10 + (1-u)*v*v01 + u*v*v11;
+		}
+	    }
+	}
+	for (int i=0; i<resolution; i++) {
+	    for (int j=0; j<resolution; j++) {
+		if (!Double.isNaN(this.values[i][j]))
+		    result[i][j] = values[i][j];
+	    }
+	}
+	return result;
+    }
+
+    public int getSimulatedPoints() {
+	return simulatedPoints;
+    }
+
+    public int getResolution() {
+	return resolution;
+    }
+
+    public List<Cell> getLeaves() {
+	return leaves;
+    }
+
+    // A square of grid points from (i0, j0) to (i0 + span, j0 + span), corners included.
+    public static class Cell {
+	public final int i0, j0, span;
+
+	private Cell(int i0, int j0, int span) {
+	    this.i0 = i0;
+	    this.j0 = j0;
+	    this.span = span;
+	}
+    }
+}
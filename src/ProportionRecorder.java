@@ -0,0 +1,300 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+// Records the strategy counts of a running lattice as a time series: a sample is taken the first time the
+// engine's time reaches each multiple of (interval), and written to a file by a background thread, as CSV
+// ("time,count0,count1,...", one row per sample) or in binary (MAGIC, VERSION and the number of strategies as
+// ints, then per sample the time as a double and the counts as ints, big-endian).
+//
+// The samples pass through a ring buffer of CAPACITY rows of preallocated primitive arrays, with one writer (the
+// thread running the lattice) and one reader (the background thread). Each side publishes how far it has got
+// with a single volatile write and never waits for the other, except when the buffer is full: taking a sample
+// is a copy of the counts, and checking whether one is due is a comparison, so update() can be called after
+// every step. If the file can't be written, the error is printed and later samples are dropped.
+public class ProportionRecorder {
+    public static final int MAGIC = 0x45475453;
+    public static final int VERSION = 1;
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long POLL_NANOS = 1000000;
+
+    private final int numStrategies;
+    private final double interval;
+    private final boolean binary;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final StringBuilder line = new StringBuilder();
+
+    // Row r of the ring is times[r] and counts[r*numStrategies] through counts[r*numStrategies + numStrategies-1].
+    private final int capacity;
+    private final double[] times;
+    private final int[] counts;
+    // The number of rows ever written to the ring, and ever read from it. Only the update thread writes (head),
+    // and only the background thread writes (tail) and (flushed), the number of rows it has handed to the file.
+    private volatile long head;
+    private volatile long tail;
+    private volatile long flushed;
+    private volatile boolean closed;
+    private volatile boolean failed;
+    // The update thread's own copies, so the common case reads no volatile field.
+    private long nextHead;
+    private long knownTail;
+    private double nextTime;
+    private double lastTime = Double.NEGATIVE_INFINITY;
+    private long stalls;
+    private final Thread writer;
+
+    // Starts a new series in (file), replacing it if it exists; the first sample is taken at the next update().
+    public ProportionRecorder(File file, int numStrategies, double interval, boolean binary) throws IOException {
+	this(FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+	     numStrategies, interval, binary, DEFAULT_CAPACITY);
+	writeHeader();
+	start(Double.NEGATIVE_INFINITY);
+    }
+
+    // Continues the series in (file) from a run restored at (time): samples after (time), which a run that was
+    // killed may have taken past its last checkpoint, are cut off, and new ones are appended. The run must have
+    // called sync() before it saved the checkpoint, so nothing before (time) is missing.
+    public static ProportionRecorder resume(File file, int numStrategies, double interval, boolean binary, double time) throws IOException {
+	if (!file.exists())
+	    return new ProportionRecorder(file, numStrategies, interval, binary);
+	FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+	ProportionRecorder recorder = new ProportionRecorder(channel, numStrategies, interval, binary, DEFAULT_CAPACITY);
+	recorder.truncateAfter(time);
+	recorder.start(time);
+	return recorder;
+    }
+
+    private ProportionRecorder(FileChannel channel, int numStrategies, double interval, boolean binary, int capacity) {
+	this.channel = channel;
+	this.numStrategies = numStrategies;
+	this.interval = interval;
+	this.binary = binary;
+	this.capacity = capacity;
+	times = new double[capacity];
+	counts = new int[capacity*numStrategies];
+	buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	writer = new Thread(new Writer(), "ProportionRecorder");
+	writer.setDaemon(true);
+    }
+
+    // Samples are due from the first multiple of (interval) after (time) on, or right away if it's -infinity.
+    private void start(double time) {
+	if (time != Double.NEGATIVE_INFINITY) {
+	    lastTime = time;
+	    nextTime = (Math.floor(time / interval) + 1) * interval;
+	}
+	else {
+	    nextTime = Double.NEGATIVE_INFINITY;
+	}
+	writer.start();
+    }
+
+    // Takes a sample if one is due. Call it after every step, or as often as the samples should be accurate.
+    public void update(SimulationEngine engine) {
+	double time = engine.getTime();
+	if (time >= nextTime) {
+	    record(time, engine.getLattice().getStrategyCounts());
+	    nextTime = (Math.floor(time / interval) + 1) * interval;
+	}
+    }
+
+    // Takes a sample now, unless one was already taken at this time; e.g. of the final state of a run.
+    public void sample(SimulationEngine engine) {
+	double time = engine.getTime();
+	if (time != lastTime)
+	    record(time, engine.getLattice().getStrategyCounts());
+    }
+
+    private void record(double time, int[] strategyCounts) {
+	if (failed)
+	    return;
+	// The background thread frees rows much faster than they are usually taken, so a full ring is rare.
+	if (nextHead - knownTail == capacity) {
+	    knownTail = tail;
+	    while (nextHead - knownTail == capacity && !failed) {
+		stalls++;
+		Thread.yield();
+		knownTail = tail;
+	    }
+	}
+	int row = (int) (nextHead % capacity);
+	times[row] = time;
+	System.arraycopy(strategyCounts, 0, counts, row*numStrategies, numStrategies);
+	lastTime = time;
+	head = ++nextHead;
+    }
+
+    // Waits until every sample taken so far has been handed to the file, e.g. before the run is checkpointed.
+    public void sync() {
+	while (flushed < nextHead && !failed) {
+	    Thread.yield();
+	}
+    }
+
+    // Writes out the remaining samples, and closes the file.
+    public void close() {
+	closed = true;
+	LockSupport.unpark(writer);
+	try {
+	    writer.join();
+	} catch (InterruptedException e) {
+	    e.printStackTrace();
+	}
+	try {
+	    channel.close();
+	} catch (IOException e) {
+	    e.printStackTrace();
+	}
+    }
+
+    // The number of times the update thread found the ring full and had to wait.
+    public long getStalls() {
+	return stalls;
+    }
+
+    private class Writer implements Runnable {
+	@Override
+	public void run() {
+	    try {
+		long next = tail;
+		while (true) {
+		    // (closed) is read first, so that once it's seen, (head) includes the last sample.
+		    boolean done = closed;
+		    long available = head;
+		    if (next == available) {
+			flush();
+			flushed = next;
+			if (done)
+			    return;
+			LockSupport.parkNanos(POLL_NANOS);
+			continue;
+		    }
+		    for (; next < available; next++) {
+			writeRow((int) (next % capacity));
+			// The row may be overwritten as soon as (tail) passes it.
+			tail = next+1;
+		    }
+		}
+	    } catch (IOException e) {
+		System.err.println("Couldn't write the proportions: " + e.getMessage());
+		failed = true;
+	    }
+	}
+    }
+
+    private void writeHeader() throws IOException {
+	if (binary) {
+	    reserve(12);
+	    buffer.putInt(MAGIC);
+	    buffer.putInt(VERSION);
+	    buffer.putInt(numStrategies);
+	}
+	else {
+	    line.setLength(0);
+	    line.append("time");
+	    for (int i=0; i<numStrategies; i++) {
+		line.append(",count").append(i);
+	    }
+	    putLine();
+	}
+	flush();
+    }
+
+    private void writeRow(int row) throws IOException {
+	if (binary) {
+	    reserve(8 + 4*numStrategies);
+	    buffer.putDouble(times[row]);
+	    for (int i=0; i<numStrategies; i++) {
+		buffer.putInt(counts[row*numStrategies + i]);
+	    }
+	}
+	else {
+	    line.setLength(0);
+	    line.append(times[row]);
+	    for (int i=0; i<numStrategies; i++) {
+		line.append(',').append(counts[row*numStrategies + i]);
+	    }
+	    putLine();
+	}
+    }
+
+    // Copies (line) and a newline into the buffer; it's all ASCII.
+    private void putLine() throws IOException {
+	reserve(line.length() + 1);
+	for (int i=0; i<line.length(); i++) {
+	    buffer.put((byte) line.charAt(i));
+	}
+	buffer.put((byte) '\n');
+    }
+
+    private void reserve(int bytes) throws IOException {
+	if (buffer.remaining() < bytes)
+	    flush();
+    }
+
+    private void flush() throws IOException {
+	buffer.flip();
+	while (buffer.hasRemaining()) {
+	    channel.write(buffer);
+	}
+	buffer.clear();
+    }
+
+    // Cuts the series in the file off after the last sample at or before (time), and moves to the end.
+    private void truncateAfter(double time) throws IOException {
+	long end;
+	if (binary) {
+	    long rowSize = 8 + 4*numStrategies;
+	    end = channel.size() >= 12 ? 12 : 0;
+	    ByteBuffer row = ByteBuffer.allocate(8);
+	    while (end > 0 && end + rowSize <= channel.size()) {
+		row.clear();
+		channel.read(row, end);
+		if (row.getDouble(0) > time)
+		    break;
+		end += rowSize;
+	    }
+	}
+	else {
+	    // The first line is the header; every later one starts with its time.
+	    end = 0;
+	    boolean header = true;
+	    long position = 0;
+	    ByteBuffer chunk = ByteBuffer.allocate(BUFFER_SIZE);
+	    line.setLength(0);
+	    while (channel.read(chunk, position) > 0) {
+		chunk.flip();
+		position += chunk.remaining();
+		while (chunk.hasRemaining()) {
+		    char c = (char) chunk.get();
+		    if (c != '\n') {
+			line.append(c);
+			continue;
+		    }
+		    int comma = line.indexOf(",");
+		    if (!header && Double.parseDouble(line.substring(0, comma < 0 ? line.length() : comma)) > time)
+			break;
+		    header = false;
+		    end += line.length() + 1;
+		    line.setLength(0);
+		}
+		if (chunk.hasRemaining())
+		    break;
+		chunk.clear();
+	    }
+	}
+	channel.truncate(end);
+	channel.position(end);
+	// A file cut off before the end of its header starts over.
+	if (end == 0 || end > channel.size()) {
+	    channel.truncate(0);
+	    channel.position(0);
+	    writeHeader();
+	}
+    }
+}
@@ -0,0 +1,70 @@
+// The original way of running a lattice: choose a site uniformly at random and apply the update method to it.
+public class RandomSequentialEngine implements SimulationEngine {
+    private Lattice lattice;
+    private long steps;
+
+    // The time is kept as (baseTime) plus the steps taken since the last change of the maximum rate,
+    // since the rate sets how much time each step is worth.
+    private double baseTime;
+    private long baseSteps;
+    private double maxRate;
+
+    public RandomSequentialEngine(Lattice lattice) {
+	this.lattice = lattice;
+	maxRate = lattice.getMaxRate();
+    }
+
+    @Override
+    public boolean step() {
+	lattice.chooseAndUpdateNode();
+	steps++;
+	return true;
+    }
+
+    @Override
+    public double getTime() {
+	if (lattice.getMaxRate() != maxRate) {
+	    baseTime += (double) (steps - baseSteps) / (maxRate*lattice.getNumSites());
+	    baseSteps = steps;
+	    maxRate = lattice.getMaxRate();
+	}
+	return baseTime + (double) (steps - baseSteps) / (maxRate*lattice.getNumSites());
+    }
+
+    @Override
+    public void setTime(double time) {
+	baseTime = time;
+	baseSteps = steps;
+	maxRate = lattice.getMaxRate();
+    }
+
+    @Override
+    public long[] getState() {
+	getTime();
+	return new long[] {steps, baseSteps, Double.doubleToRawLongBits(baseTime), Double.doubleToRawLongBits(maxRate)};
+    }
+
+    @Override
+    public void setState(long[] state) {
+	steps = state[0];
+	baseSteps = state[1];
+	baseTime = Double.longBitsToDouble(state[2]);
+	maxRate = Double.longBitsToDouble(state[3]);
+    }
+
+    // Takes (count) steps in one batch, without the per-step bookkeeping of step(); the time is the same as
+    // after (count) calls to step().
+    public void run(long count) {
+	lattice.getUpdateRule().run(count);
+	steps += count;
+    }
+
+    public long getSteps() {
+	return steps;
+    }
+
+    @Override
+    public Lattice getLattice() {
+	return lattice;
+    }
+}
@@ -0,0 +1,88 @@
+// The random number generator of a Lattice. Unlike java.util.Random, generators are not thread-safe (each
+// thread, or each lattice view, owns its own), so a draw is a few arithmetic operations rather than an atomic
+// update. Every generator is fully determined by its seed, and its state can be read and restored, so a run can
+// be repeated bit for bit.
+public abstract class RandomSource {
+    public static final String SPLITMIX = "splitmix";
+    public static final String XOROSHIRO = "xoroshiro";
+    public static final String DEFAULT_TYPE = XOROSHIRO;
+
+    private static long seedUniquifier = System.nanoTime();
+
+    private final long seed;
+
+    protected RandomSource(long seed) {
+	this.seed = seed;
+    }
+
+    public static RandomSource create(String type, long seed) {
+	if (type.equals(SPLITMIX))
+	    return new SplitMixRandom(seed);
+	if (type.equals(XOROSHIRO))
+	    return new XoroshiroRandom(seed);
+	System.err.println("Unknown random number generator " + type + "... EXITING.");
+	System.exit(1);
+	return null;
+    }
+
+    public static RandomSource create(long seed) {
+	return create(DEFAULT_TYPE, seed);
+    }
+
+    // Returns a fresh seed for runs that weren't given one. It should be printed or stored, so that the run can be repeated.
+    public static synchronized long randomSeed() {
+	seedUniquifier += 0x9E3779B97F4A7C15L;
+	return SplitMixRandom.mix(seedUniquifier ^ System.nanoTime());
+    }
+
+    // The seed this generator started from.
+    public long getSeed() {
+	return seed;
+    }
+
+    // Returns a new generator of the same kind as this one, seeded with (seed).
+    public abstract RandomSource newInstance(long seed);
+
+    public abstract String getType();
+
+    public abstract long nextLong();
+
+    // The state of the generator, which setState() restores exactly.
+    public abstract long[] getState();
+
+    public abstract void setState(long[] state);
+
+    // Returns an int uniformly distributed between 0 and (bound)-1; (bound) must be positive, which is only
+    // asserted, since this is called for every site update. This is Lemire's multiply-and-shift method, which
+    // needs a division only in the rare case where the first draw must be rejected.
+    public int nextInt(int bound) {
+	assert bound > 0;
+	long m = (nextLong() >>> 32) * bound;
+	if ((m & 0xFFFFFFFFL) < bound) {
+	    long threshold = (0x100000000L - bound) % bound;
+	    while ((m & 0xFFFFFFFFL) < threshold) {
+		m = (nextLong() >>> 32) * bound;
+	    }
+	}
+	return (int) (m >>> 32);
+    }
+
+    // Returns a double uniformly distributed in [0, 1), with all 53 bits of the mantissa random.
+    public double nextDouble() {
+	return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // Fills out[from] through out[to-1] with ints between 0 and (bound)-1, as if by nextInt(bound) for each.
+    public void nextInts(int[] out, int from, int to, int bound) {
+	for (int i=from; i<to; i++) {
+	    out[i] = nextInt(bound);
+	}
+    }
+
+    // Fills out[from] through out[to-1] with doubles in [0, 1), as if by nextDouble() for each.
+    public void nextDoubles(double[] out, int from, int to) {
+	for (int i=from; i<to; i++) {
+	    out[i] = nextDouble();
+	}
+    }
+}
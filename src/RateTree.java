@@ -0,0 +1,69 @@
+// A Fenwick (binary indexed) tree over non-negative rates, one per site. It supports changing a rate,
+// reading the total, and finding the site a uniformly chosen point of the total falls on, all in O(log n).
+public class RateTree {
+    private final int n;
+    private final double[] rates;
+    private final double[] tree;
+    // Incremental updates slowly accumulate rounding error, so we rebuild the sums from (rates) every n updates.
+    private int updatesSinceRebuild;
+    private int highestPowerOfTwo;
+
+    public RateTree(int n) {
+	this.n = n;
+	rates = new double[n];
+	tree = new double[n+1];
+	highestPowerOfTwo = Integer.highestOneBit(Math.max(n, 1));
+    }
+
+    public void set(int i, double rate) {
+	double delta = rate - rates[i];
+	if (delta == 0)
+	    return;
+	rates[i] = rate;
+	if (++updatesSinceRebuild >= n) {
+	    rebuild();
+	    return;
+	}
+	for (int j=i+1; j<=n; j += j & -j) {
+	    tree[j] += delta;
+	}
+    }
+
+    public double get(int i) {
+	return rates[i];
+    }
+
+    // Recomputes every partial sum from the rates in O(n).
+    public void rebuild() {
+	for (int j=1; j<=n; j++) {
+	    tree[j] = rates[j-1];
+	}
+	for (int j=1; j<=n; j++) {
+	    int parent = j + (j & -j);
+	    if (parent <= n)
+		tree[parent] += tree[j];
+	}
+	updatesSinceRebuild = 0;
+    }
+
+    public double getTotal() {
+	double total = 0;
+	for (int j=n; j>0; j -= j & -j) {
+	    total += tree[j];
+	}
+	return total;
+    }
+
+    // Returns the index i such that rates[0] + ... + rates[i-1] <= target < rates[0] + ... + rates[i].
+    public int find(double target) {
+	int position = 0;
+	for (int step=highestPowerOfTwo; step>0; step >>= 1) {
+	    int next = position + step;
+	    if (next <= n && tree[next] <= target) {
+		position = next;
+		target -= tree[next];
+	    }
+	}
+	return Math.min(position, n-1);
+    }
+}
@@ -0,0 +1,268 @@
+// Runs 64 independent replicas of a two-strategy 2D lattice at once, for ensemble statistics such as fixation
+// probabilities and fixation times. The replicas are bit-sliced: words[site] holds the strategy of (site) in all
+// 64 replicas, bit r for replica r. Each step chooses one site, the same in every replica (which is fine, since
+// the site choice doesn't depend on the state), and then updates it in all replicas at once with bitwise logic.
+// Everything that does depend on the state is drawn per replica: whether the update is accepted, and which
+// neighbor it involves. So each replica is an ordinary random-sequential run, and the replicas are independent
+// of each other.
+//
+// Methods 0 and 1 (birth and death) and 7 (best response) are supported. The time is measured as in
+// RandomSequentialEngine, in units of (maxRate)*(numSites) steps.
+public class ReplicaEnsembleEngine {
+    public static final int REPLICAS = 64;
+    // Acceptance probabilities are compared to 53 random bits, the resolution of nextDouble().
+    private static final int PROBABILITY_BITS = 53;
+
+    private final int size;
+    private final int numSites;
+    private final int updateMethod;
+    private final double[][] payoffMatrix;
+    private final double maxRate;
+    private final RandomSource rand;
+
+    private final long[] words;
+    private final int[] neighbors;
+
+    // payoffs[s][c] is the payoff of strategy (s) with (c) neighbors playing strategy 1, and
+    // thresholds[s][c] is the probability of acceptance, |payoff| / maxRate, as a fraction of 2^53.
+    private final double[][] payoffs;
+    private final long[][] thresholds;
+
+    // The number of sites playing strategy 1 in each replica, and the time each replica first fixated, or -1.
+    private final int[] ones;
+    private final double[] fixationTimes;
+    private int numFixed;
+    private long steps;
+
+    // Scratch space for one step.
+    private final long[] planes = new long[3];
+    private final long[] classMasks = new long[10];
+    private final long[] classThresholds = new long[10];
+    private final long[] directions = new long[4];
+
+    // The replicas share the size, update method, payoff matrix and initial proportions of (template), but
+    // each gets its own random initial configuration.
+    public ReplicaEnsembleEngine(Lattice template, long seed) {
+	if (template.getDimensions() != 2 || template.getNumStrategies() != 2 || template.getInteractionRange() != 1
+	    || template.getNeighborhood() != Lattice.NEIGHBORHOOD_VON_NEUMANN) {
+	    System.err.println("The replica ensemble needs 2 strategies in 2 dimensions with the four nearest neighbors. EXITING.");
+	    System.exit(1);
+	}
+	if (!supports(template.getUpdateMethod())) {
+	    System.err.println("The replica ensemble only runs update methods 0, 1 and 7. EXITING.");
+	    System.exit(1);
+	}
+	size = template.getSize();
+	numSites = size*size;
+	updateMethod = template.getUpdateMethod();
+	payoffMatrix = template.getPayoffMatrix();
+	maxRate = template.getMaxRate();
+	rand = RandomSource.create(seed);
+	neighbors = NeighborTable.vonNeumann2D(size).getTable();
+
+	payoffs = new double[2][5];
+	thresholds = new long[2][5];
+	for (int s=0; s<2; s++) {
+	    for (int c=0; c<=4; c++) {
+		payoffs[s][c] = (4-c)*payoffMatrix[s][0] + c*payoffMatrix[s][1];
+		thresholds[s][c] = toThreshold(Math.abs(payoffs[s][c]) / maxRate);
+	    }
+	}
+
+	// Every bit of every site is set with the initial proportion of strategy 1, independently.
+	words = new long[numSites];
+	ones = new int[REPLICAS];
+	fixationTimes = new double[REPLICAS];
+	classMasks[0] = -1L;
+	classThresholds[0] = toThreshold(template.getInitProportionOf(1));
+	for (int i=0; i<numSites; i++) {
+	    words[i] = drawBernoulli(1);
+	    for (long bits = words[i]; bits != 0; bits &= bits - 1) {
+		ones[Long.numberOfTrailingZeros(bits)]++;
+	    }
+	}
+	for (int r=0; r<REPLICAS; r++) {
+	    fixationTimes[r] = isFixed(r) ? 0 : -1;
+	    if (isFixed(r))
+		numFixed++;
+	}
+    }
+
+    public static boolean supports(int updateMethod) {
+	return updateMethod == 0 || updateMethod == 1 || updateMethod == 7;
+    }
+
+    // Takes one step in every replica. Returns false once every replica has fixated under birth and death,
+    // which can't be left; under best response, a fixated replica may still change, so it always returns true.
+    public boolean step() {
+	int site = rand.nextInt(numSites);
+	long self = words[site];
+	long north = words[neighbors[4*site]];
+	long east = words[neighbors[4*site + 1]];
+	long south = words[neighbors[4*site + 2]];
+	long west = words[neighbors[4*site + 3]];
+	PackedLattice.addBits(north, east, south, west, planes);
+
+	if (updateMethod == 7)
+	    stepBestResponse(site);
+	else
+	    stepBirthDeath(site, self, north, east, south, west);
+	steps++;
+	return updateMethod == 7 || numFixed < REPLICAS;
+    }
+
+    // Method 0, and method 1, which is the same without the negative payoffs. A replica where (site) has a
+    // negative payoff may die and copy a neighbor; one where it has a positive payoff may give birth into one.
+    private void stepBirthDeath(int site, long self, long north, long east, long south, long west) {
+	long death = 0;
+	for (int c=0; c<=4; c++) {
+	    long count = PackedLattice.matchCount(planes, c);
+	    for (int s=0; s<2; s++) {
+		long mask = count & (s == 1 ? self : ~self);
+		classMasks[2*c + s] = mask;
+		classThresholds[2*c + s] = thresholds[s][c];
+		if (payoffs[s][c] < 0)
+		    death |= mask;
+	    }
+	}
+	long accepted = drawBernoulli(10);
+	if (accepted == 0)
+	    return;
+	death &= accepted;
+	long birth = accepted & ~death;
+
+	// Two random bits per replica choose its neighbor: north, east, south or west.
+	long low = rand.nextLong();
+	long high = rand.nextLong();
+	directions[0] = ~high & ~low;
+	directions[1] = ~high & low;
+	directions[2] = high & ~low;
+	directions[3] = high & low;
+	if (death != 0) {
+	    long copied = (north & directions[0]) | (east & directions[1]) | (south & directions[2]) | (west & directions[3]);
+	    setWord(site, (self & ~death) | (copied & death));
+	}
+	if (birth != 0) {
+	    for (int d=0; d<4; d++) {
+		long mask = birth & directions[d];
+		if (mask != 0) {
+		    int neighbor = neighbors[4*site + d];
+		    setWord(neighbor, (words[neighbor] & ~mask) | (self & mask));
+		}
+	    }
+	}
+    }
+
+    // Method 7: each replica takes the best response to its neighbors, flipping a coin in a tie.
+    private void stepBestResponse(int site) {
+	long value = 0;
+	long tie = 0;
+	for (int c=0; c<=4; c++) {
+	    long count = PackedLattice.matchCount(planes, c);
+	    if (payoffs[1][c] > payoffs[0][c])
+		value |= count;
+	    else if (payoffs[1][c] == payoffs[0][c])
+		tie |= count;
+	}
+	if (tie != 0)
+	    value |= tie & rand.nextLong();
+	setWord(site, value);
+    }
+
+    // Returns a word whose bit r is set with probability classThresholds[k] / 2^53, where k is the class of
+    // replica r, i.e. the one of classMasks[0] through classMasks[numClasses-1] with bit r set; the classes must
+    // not overlap. This is a bit-sliced comparison of 64 uniform random numbers with the thresholds, generated
+    // one binary digit at a time from the top: a replica is decided at the first digit where its random number
+    // and its threshold differ, which takes two digits on average, so all 64 are usually decided within
+    // a handful of digits rather than 53.
+    private long drawBernoulli(int numClasses) {
+	long accepted = 0;
+	long undecided = 0;
+	for (int k=0; k<numClasses; k++) {
+	    if (classThresholds[k] >= 1L << PROBABILITY_BITS)
+		accepted |= classMasks[k];
+	    else if (classThresholds[k] > 0)
+		undecided |= classMasks[k];
+	}
+	for (int bit=PROBABILITY_BITS-1; bit>=0 && undecided != 0; bit--) {
+	    long thresholdBits = 0;
+	    for (int k=0; k<numClasses; k++) {
+		if (((classThresholds[k] >>> bit) & 1) != 0)
+		    thresholdBits |= classMasks[k];
+	    }
+	    long randomBits = rand.nextLong();
+	    // Where the threshold has a 1 and the random number a 0, the number is smaller: accept.
+	    // Where they differ the other way, reject. Where they agree, look at the next digit.
+	    accepted |= undecided & thresholdBits & ~randomBits;
+	    undecided &= ~(thresholdBits ^ randomBits);
+	}
+	return accepted;
+    }
+
+    private static long toThreshold(double probability) {
+	if (probability >= 1)
+	    return 1L << PROBABILITY_BITS;
+	return (long) (probability * (1L << PROBABILITY_BITS));
+    }
+
+    // Writes (value) to (site), keeping the counts of each replica up to date and noting new fixations.
+    private void setWord(int site, long value) {
+	long changed = words[site] ^ value;
+	if (changed == 0)
+	    return;
+	words[site] = value;
+	for (long bits = changed; bits != 0; bits &= bits - 1) {
+	    int r = Long.numberOfTrailingZeros(bits);
+	    boolean wasFixed = isFixed(r);
+	    ones[r] += ((value >>> r) & 1) != 0 ? 1 : -1;
+	    if (isFixed(r) != wasFixed)
+		numFixed += wasFixed ? -1 : 1;
+	    if (fixationTimes[r] < 0 && isFixed(r))
+		fixationTimes[r] = getTime();
+	}
+    }
+
+    public double getTime() {
+	return steps / (maxRate*numSites);
+    }
+
+    public double getProportionOf(int replica, int strategy) {
+	int count = strategy == 1 ? ones[replica] : numSites - ones[replica];
+	return (double) count / (double) numSites;
+    }
+
+    public boolean isFixed(int replica) {
+	return ones[replica] == 0 || ones[replica] == numSites;
+    }
+
+    // Returns the strategy (replica) has fixated on, or -1 if it hasn't.
+    public int getFixedStrategy(int replica) {
+	if (ones[replica] == 0)
+	    return 0;
+	if (ones[replica] == numSites)
+	    return 1;
+	return -1;
+    }
+
+    // Returns the time (replica) first fixated, or -1 if it hasn't yet.
+    public double getFixationTime(int replica) {
+	return fixationTimes[replica];
+    }
+
+    public int getNumFixed() {
+	return numFixed;
+    }
+
+    // Returns the strategy of (site) in (replica).
+    public int getStrategyAt(int replica, int site) {
+	return (int) (words[site] >>> replica) & 1;
+    }
+
+    public int getSize() {
+	return size;
+    }
+
+    public int getUpdateMethod() {
+	return updateMethod;
+    }
+}
@@ -0,0 +1,55 @@
+// The mean and variance of a stream of numbers, updated one number at a time by Welford's method: each number
+// moves the mean by its difference from it over the count, and adds to the sum of squared differences from the
+// mean (m2) the product of its differences from the old and new means. Unlike summing the numbers and their
+// squares, this loses no precision when the variance is small next to the mean, as a proportion's is.
+public class RunningStatistics {
+    private long count;
+    private double mean;
+    private double m2;
+
+    public void add(double x) {
+	count++;
+	double delta = x - mean;
+	mean += delta / count;
+	m2 += delta * (x - mean);
+    }
+
+    public void reset() {
+	count = 0;
+	mean = 0;
+	m2 = 0;
+    }
+
+    public long getCount() {
+	return count;
+    }
+
+    public double getMean() {
+	return mean;
+    }
+
+    // The sample variance, or 0 for fewer than two numbers.
+    public double getVariance() {
+	return count > 1 ? m2 / (count - 1) : 0;
+    }
+
+    public double getStandardDeviation() {
+	return Math.sqrt(getVariance());
+    }
+
+    // The standard error of the mean, if the numbers are independent.
+    public double getStandardError() {
+	return count > 0 ? Math.sqrt(getVariance() / count) : 0;
+    }
+
+    // {count, mean bits, m2 bits}, for saving the statistics along with a run.
+    public long[] getState() {
+	return new long[] {count, Double.doubleToLongBits(mean), Double.doubleToLongBits(m2)};
+    }
+
+    public void setState(long[] state) {
+	count = state[0];
+	mean = Double.longBitsToDouble(state[1]);
+	m2 = Double.longBitsToDouble(state[2]);
+    }
+}
@@ -0,0 +1,21 @@
+// Advances a Lattice through simulated time. One unit of time is (maxRate)*(numSites) random-sequential
+// update attempts, which is the time scale the Simulator and the PhaseDiagramIterator have always used;
+// every engine keeps to it, so the same stop time means the same thing whichever engine runs the lattice.
+public interface SimulationEngine {
+    // Advances the lattice by one event. Returns false if the lattice can no longer change.
+    boolean step();
+
+    double getTime();
+
+    void setTime(double time);
+
+    Lattice getLattice();
+
+    // Returns the engine's own state: its clock, step counter and whatever else it keeps between steps, apart from
+    // the lattice. An engine of the same kind, built on a copy of the lattice and given this state by setState(),
+    // continues exactly as this one does. Engines may first rebuild what they derive from the lattice, so that
+    // the copy, which builds it from scratch, agrees with them bit for bit.
+    long[] getState();
+
+    void setState(long[] state);
+}
@@ -14,10 +14,16 @@ import java.awt.GridBagConstraints;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.IOException;
 import java.text.DecimalFormat;
 
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
 import javax.swing.JSpinner;
+import javax.swing.JTextArea;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
@@ -27,6 +33,9 @@ public class Simulator extends JFrame {
     // Constant variable declarations
     private final int DEFAULT_CANVAS_SIZE = 400;
     private final int DEFAULT_STOP_TIME = -1;
+    // The lattice takes up to Lattice.MAX_STRATEGIES strategies, but the settings panel has a spinner for every
+    // payoff, so it offers at most enough for rock-paper-scissors-lizard-Spock.
+    private final int MAX_GUI_STRATEGIES = 5;
     private final String PAUSE_BUTTON_ISRUNNING_TEXT = "Pause";
     private final String PAUSE_BUTTON_NOTISRUNNING_TEXT = "Resume";
     private final String[] UPDATE_METHOD_NAMES =  {
@@ -43,18 +52,26 @@ public class Simulator extends JFrame {
 
     // Instance variable declarations
     private Lattice lattice;
+    private SimulationEngine engine;
+    private int engineUpdateMethod;
     private boolean isRunning;
     private int drawHead;
     private int time;
     private int size;
     private int stopTime;
+    // A run stops once its proportions are stationary to within this, or 0 to run to (stopTime).
+    private double stationarityTolerance;
     private Thread calculateThread, animateThread;
     private JPanel settingsPanel, infoPanel;
     private CanvasPanel canvas;
+    private LatticeRenderer renderer;
+    // The seed given on the command line, or null to seed each run afresh
+    private Long seed;
     private JLabel ratioLabel, ratioHeadingLabel, currentTimeLabel;
-    private JButton startButton, pauseButton, resetButton;
+    private JButton startButton, pauseButton, resetButton, saveButton, loadButton, structureButton, clustersButton;
     private JComboBox updateMethodComboBox;
-    private JSpinner timeSpinner, dimensionsSpinner, numStrategiesSpinner, interactionRangeSpinner;
+    private JComboBox<String> neighborhoodComboBox;
+    private JSpinner timeSpinner, toleranceSpinner, dimensionsSpinner, numStrategiesSpinner, interactionRangeSpinner;
     private JSpinner[] initProportionMaskSpinners;
     private JSpinner[][] payoffMatrixSpinners;
 
@@ -66,13 +83,18 @@ public class Simulator extends JFrame {
 	stopTime = DEFAULT_STOP_TIME;
 
 	lattice = new Lattice();
+	renderer = new LatticeRenderer();
 	setSize(new Dimension(800, 400));
 	initializeUI();
 	reconcileMode(true);
     }
 
+    // An optional seed may be given as the only argument; every run started with Start then uses it,
+    // so runs can be repeated exactly. Without one, each run gets a fresh seed, which is printed.
     public static void main(String[] args) {
 	Simulator s = new Simulator();
+	if (args.length > 0)
+	    s.seed = Long.valueOf(args[0]);
 	s.setSize(300,200);
 	s.setVisible(true);
 	//	s.setLayout(new FlowLayout());
@@ -103,6 +125,22 @@ public class Simulator extends JFrame {
 	resetButton.addActionListener(new ResetButtonListener());
 	buttonPanel.add(resetButton);
 
+	saveButton = new JButton("Save");
+	saveButton.addActionListener(new SaveButtonListener());
+	buttonPanel.add(saveButton);
+
+	loadButton = new JButton("Load");
+	loadButton.addActionListener(new LoadButtonListener());
+	buttonPanel.add(loadButton);
+
+	structureButton = new JButton("Structure");
+	structureButton.addActionListener(new StructureButtonListener());
+	buttonPanel.add(structureButton);
+
+	clustersButton = new JButton("Clusters");
+	clustersButton.addActionListener(new ClustersButtonListener());
+	buttonPanel.add(clustersButton);
+
 	settingsPanel = new JPanel();
 	controlPanel.add(settingsPanel, BorderLayout.CENTER);
 	GridBagLayout gbl_settingsPanel = new GridBagLayout();
@@ -129,6 +167,16 @@ public class Simulator extends JFrame {
 	timeSpinner.addChangeListener(new GameTheoryChangeListener());
 	settingsPanel.add(timeSpinner, gbc_timeSpinner);
 
+	toleranceSpinner = new JSpinner();
+	toleranceSpinner.setModel(new SpinnerNumberModel(stationarityTolerance, 0.0, 1.0, 0.001));
+	toleranceSpinner.setToolTipText("Stop once the proportions are stationary to within this (0 to run to the stop time)");
+	GridBagConstraints gbc_toleranceSpinner = new GridBagConstraints();
+	gbc_toleranceSpinner.insets = new Insets(0, 0, 5, 5);
+	gbc_toleranceSpinner.gridx = 5;
+	gbc_toleranceSpinner.gridy = 1;
+	toleranceSpinner.addChangeListener(new GameTheoryChangeListener());
+	settingsPanel.add(toleranceSpinner, gbc_toleranceSpinner);
+
 	initializeCurrentTimeLabel();
 
 	JLabel dimensionsLabel = new JLabel("Dimensions");
@@ -155,7 +203,7 @@ public class Simulator extends JFrame {
 	settingsPanel.add(numStrategiesLabel, gbc_numStrategiesLabel);
 
 	numStrategiesSpinner = new JSpinner();
-	numStrategiesSpinner.setModel(new SpinnerNumberModel(lattice.getNumStrategies(), 2, 3, 1));
+	numStrategiesSpinner.setModel(new SpinnerNumberModel(lattice.getNumStrategies(), 2, MAX_GUI_STRATEGIES, 1));
 	GridBagConstraints gbc_numStrategiesSpinner = new GridBagConstraints();
 	gbc_numStrategiesSpinner.insets = new Insets(0, 0, 5, 5);
 	gbc_numStrategiesSpinner.gridx = 4;
@@ -179,6 +227,18 @@ public class Simulator extends JFrame {
 	interactionRangeSpinner.addChangeListener(new GameTheoryChangeListener());
 	settingsPanel.add(interactionRangeSpinner, gbc_interactionRangeSpinner);
 
+	// Custom neighborhoods can only be set from code, so the combo box only offers the built-in ones.
+	neighborhoodComboBox = new JComboBox<>(new String[] {Lattice.NEIGHBORHOOD_NAMES[Lattice.NEIGHBORHOOD_VON_NEUMANN],
+							     Lattice.NEIGHBORHOOD_NAMES[Lattice.NEIGHBORHOOD_MOORE]});
+	neighborhoodComboBox.setSelectedIndex(lattice.getNeighborhood());
+	GridBagConstraints gbc_neighborhoodComboBox = new GridBagConstraints();
+	gbc_neighborhoodComboBox.insets = new Insets(0, 0, 5, 5);
+	gbc_neighborhoodComboBox.fill = GridBagConstraints.HORIZONTAL;
+	gbc_neighborhoodComboBox.gridx = 5;
+	gbc_neighborhoodComboBox.gridy = 4;
+	neighborhoodComboBox.addActionListener(new ComboBoxListener());
+	settingsPanel.add(neighborhoodComboBox, gbc_neighborhoodComboBox);
+
 	JLabel lblInitialProportions = new JLabel("Initial Proportions");
 	GridBagConstraints gbc_lblInitialProportions = new GridBagConstraints();
 	gbc_lblInitialProportions.insets = new Insets(0, 0, 5, 5);
@@ -303,7 +363,7 @@ public class Simulator extends JFrame {
 	if (lattice.numStrategies == 2) {
 	    ratioHeading = "Black : White";
 	}
-	else if (lattice.numStrategies == 3) {
+	else {
 	    for(int i=0; i<lattice.getNumStrategies()-1; i++) {
 		ratioHeading += Lattice.getStrategyColorName(i).toString() + " : ";
 	    }
@@ -350,6 +410,10 @@ public class Simulator extends JFrame {
 	    lattice.setInteractionRange((Integer) interactionRangeSpinner.getValue());
 	    reconcileMode(true);
 	}
+	if (lattice.getNeighborhood() != neighborhoodComboBox.getSelectedIndex()) {
+	    lattice.setNeighborhood(neighborhoodComboBox.getSelectedIndex());
+	    reconcileMode(true);
+	}
 	for (int i=0; i<lattice.getNumStrategies(); i++) {
 	    if (lattice.getInitProportionMaskOf(i) != (Double) initProportionMaskSpinners[i].getValue()) {
 		lattice.setInitProportionMaskOf(i, (Double) initProportionMaskSpinners[i].getValue());
@@ -392,6 +456,7 @@ public class Simulator extends JFrame {
 	if (stopTime != (Integer) timeSpinner.getValue()) {
 	    stopTime = (Integer) timeSpinner.getValue(); 
 	}
+	stationarityTolerance = (Double) toleranceSpinner.getValue();
     }
 
     private void reconcileMode(boolean canResume) {
@@ -414,6 +479,10 @@ public class Simulator extends JFrame {
 	    pauseButton.setText(PAUSE_BUTTON_ISRUNNING_TEXT);
 	    pauseButton.setEnabled(true);
 	    resetButton.setEnabled(false);
+	    saveButton.setEnabled(false);
+	    loadButton.setEnabled(false);
+	    structureButton.setEnabled(false);
+	    clustersButton.setEnabled(false);
 
 	    // Disable the settings we're not allowed to change while the animation is running.
 	    dimensionsSpinner.setEnabled(false);
@@ -426,6 +495,10 @@ public class Simulator extends JFrame {
 	    startButton.setEnabled(true);
 	    pauseButton.setText(PAUSE_BUTTON_NOTISRUNNING_TEXT);
 	    resetButton.setEnabled(true);
+	    saveButton.setEnabled(true);
+	    loadButton.setEnabled(true);
+	    structureButton.setEnabled(true);
+	    clustersButton.setEnabled(true);
 
 	    dimensionsSpinner.setEnabled(true);
 	    numStrategiesSpinner.setEnabled(true);
@@ -435,11 +508,11 @@ public class Simulator extends JFrame {
 
 	// ONE DIMENSION RULES //
 	if (lattice.getDimensions() == 1) {
-	    interactionRangeSpinner.setEnabled(true);
+	    neighborhoodComboBox.setEnabled(false);
 	}
 	// TWO DIMENSION RULES //
 	else if (lattice.getDimensions() == 2) {
-	    interactionRangeSpinner.setEnabled(false);
+	    neighborhoodComboBox.setEnabled(true);
 	}
 
 	if (payoffMatrixSpinners.length != lattice.getNumStrategies() || 
@@ -464,6 +537,31 @@ public class Simulator extends JFrame {
     public void windowDeactivated(WindowEvent e) { }
     
 
+    // The update method may be changed while the simulation runs, and the engine depends on it.
+    private void reconcileEngine() {
+	if (engine == null || engine.getLattice() != lattice || engineUpdateMethod != lattice.getUpdateMethod()) {
+	    double startTime = engine == null || engine.getLattice() != lattice ? 0 : engine.getTime();
+	    if (engine instanceof ParallelTileEngine)
+		((ParallelTileEngine) engine).shutdown();
+	    // A lattice loaded from a checkpoint may be big enough to be worth running on every core.
+	    engine = lattice.createParallelEngine(Runtime.getRuntime().availableProcessors());
+	    engine.setTime(startTime);
+	    engineUpdateMethod = lattice.getUpdateMethod();
+	}
+    }
+
+    // Waits for the calculating thread to finish the step it's taking after a pause.
+    private void waitForCalculator() {
+	Thread thread = calculateThread;
+	if (thread != null) {
+	    try {
+		thread.join();
+	    } catch (InterruptedException e) {
+		e.printStackTrace();
+	    }
+	}
+    }
+
     private class Animator implements Runnable {
 	@Override
 	public void run() {
@@ -486,13 +584,14 @@ public class Simulator extends JFrame {
 	}
     }
 
+    // Each run, and each resumed run, checks for stationarity afresh.
     private class Calculator implements Runnable {
 	@Override
 	public void run() {
-	    for (int i = 0; isRunning; i++) {
-		double maxRate = lattice.getMaxRate();
-		double size = lattice.getSize();
-		time = (int) ((double) i / (double) (maxRate*size*size));
+	    StationarityDetector detector = null;
+	    while (isRunning) {
+		reconcileEngine();
+		time = (int) engine.getTime();
 		if (time >= stopTime && stopTime >= 0) {
 		    stop();
 		}
@@ -501,7 +600,18 @@ public class Simulator extends JFrame {
 			stop();
 		    }
 		}
-		lattice.chooseAndUpdateNode();
+		if (!engine.step()) {
+		    stop();
+		}
+		if (stationarityTolerance > 0) {
+		    if (detector == null || detector.getTolerance() != stationarityTolerance)
+			detector = new StationarityDetector(lattice.getNumStrategies(), stationarityTolerance);
+		    detector.update(engine);
+		    if (detector.isStationary()) {
+			System.out.println("Stationary from time " + detector.getConvergenceTime() + " (stopped at " + engine.getTime() + ").");
+			stop();
+		    }
+		}
 	    }
 	    isRunning = false;
 	    calculateThread = null;
@@ -522,10 +632,10 @@ public class Simulator extends JFrame {
 	public void paintComponent(Graphics g) {
 	    super.paintComponent(g);
 	    if (lattice.dimensions == 1) {
-		lattice.draw1D(g, drawHead, size);
+		renderer.draw1D(g, lattice, drawHead, size);
 	    }
 	    else if (lattice.dimensions == 2) {
-		lattice.draw2D(g, size);
+		renderer.draw2D(g, lattice, size);
 	    }
 	}
     }
@@ -546,12 +656,16 @@ public class Simulator extends JFrame {
 			payoffMatrixCopy[i][j] = (Double) payoffMatrixSpinners[i][j].getValue();
 		    }
 		}
-		lattice = new Lattice((int) (Integer) dimensionsSpinner.getValue(), 
+		lattice = new Lattice(Lattice.DEFAULT_SIZE,
+				      (int) (Integer) dimensionsSpinner.getValue(), 
 				      (int) (Integer) numStrategiesSpinner.getValue(), 
 				      (int) (Integer) interactionRangeSpinner.getValue(), 
 				      initProportionMasksCopy,
 				      updateMethodComboBox.getSelectedIndex(),
-				      payoffMatrixCopy);
+				      payoffMatrixCopy,
+				      seed != null ? seed : RandomSource.randomSeed());
+		lattice.setNeighborhood(neighborhoodComboBox.getSelectedIndex());
+		System.out.println("Seed: " + lattice.getSeed());
 		reconcileMode(true);
 		animateThread = new Thread(new Animator());
 		calculateThread = new Thread(new Calculator());
@@ -592,6 +706,112 @@ public class Simulator extends JFrame {
 	}
     }
 
+    // Saves the paused run, which Load restores to continue exactly where it stopped.
+    private class SaveButtonListener implements ActionListener {
+	@Override
+	public void actionPerformed(ActionEvent arg0) {
+	    JFileChooser chooser = new JFileChooser();
+	    if (chooser.showSaveDialog(Simulator.this) != JFileChooser.APPROVE_OPTION)
+		return;
+	    waitForCalculator();
+	    reconcileEngine();
+	    try {
+		LatticeCheckpoint.write(chooser.getSelectedFile(), engine);
+	    } catch (IOException e) {
+		JOptionPane.showMessageDialog(Simulator.this, "Couldn't save " + chooser.getSelectedFile() + ": " + e.getMessage(), "Save", JOptionPane.ERROR_MESSAGE);
+	    }
+	}
+    }
+
+    private class LoadButtonListener implements ActionListener {
+	@Override
+	public void actionPerformed(ActionEvent arg0) {
+	    JFileChooser chooser = new JFileChooser();
+	    if (chooser.showOpenDialog(Simulator.this) != JFileChooser.APPROVE_OPTION)
+		return;
+	    File file = chooser.getSelectedFile();
+	    SimulationEngine loaded;
+	    try {
+		loaded = LatticeCheckpoint.read(file);
+	    } catch (IOException e) {
+		JOptionPane.showMessageDialog(Simulator.this, "Couldn't load " + file + ": " + e.getMessage(), "Load", JOptionPane.ERROR_MESSAGE);
+		return;
+	    }
+	    // The settings panel only offers what the GUI can show, and only the built-in neighborhoods.
+	    Lattice loadedLattice = loaded.getLattice();
+	    if (loadedLattice.getDimensions() > 2 || loadedLattice.getNumStrategies() > MAX_GUI_STRATEGIES
+		|| loadedLattice.getNeighborhood() == Lattice.NEIGHBORHOOD_CUSTOM) {
+		JOptionPane.showMessageDialog(Simulator.this, file + " holds a lattice the simulator can't display.", "Load", JOptionPane.ERROR_MESSAGE);
+		return;
+	    }
+	    waitForCalculator();
+	    getContentPane().removeAll();
+	    lattice = loadedLattice;
+	    if (engine instanceof ParallelTileEngine)
+		((ParallelTileEngine) engine).shutdown();
+	    engine = loaded;
+	    engineUpdateMethod = lattice.getUpdateMethod();
+	    time = (int) engine.getTime();
+	    drawHead = 0;
+	    size = DEFAULT_CANVAS_SIZE;
+	    initializeUI();
+	    reconcileMode(true);
+	    pauseButton.setEnabled(true);
+	    updateCurrentTimeLabel();
+	    validate();
+	    repaint();
+	}
+    }
+
+    // Shows the correlation function, the structure factor and the domain length of the paused lattice.
+    // Shows the clusters of each strategy in the paused lattice: how many, the largest, and their sizes.
+    private class ClustersButtonListener implements ActionListener {
+	@Override
+	public void actionPerformed(ActionEvent arg0) {
+	    waitForCalculator();
+	    ClusterAnalyzer analyzer = new ClusterAnalyzer();
+	    analyzer.analyze(lattice);
+	    analyzer.shutdown();
+	    DecimalFormat format = new DecimalFormat("0.000000");
+	    StringBuilder text = new StringBuilder();
+	    for (int s=0; s<lattice.getNumStrategies(); s++) {
+		text.append("Strategy ").append(s).append(": ").append(analyzer.getNumClusters(s)).append(" clusters, largest ")
+		    .append(analyzer.getLargestClusterSize(s)).append(" sites (").append(format.format(analyzer.getLargestClusterFraction(s)))
+		    .append("), mean ").append(format.format(analyzer.getMeanClusterSize(s))).append(" sites\n");
+		long[] histogram = analyzer.getSizeHistogram(s);
+		for (int k=0; k<histogram.length; k++) {
+		    if (histogram[k] > 0)
+			text.append("  ").append(1L << k).append(" to ").append((1L << (k+1)) - 1).append(" sites:\t").append(histogram[k]).append('\n');
+		}
+	    }
+	    JTextArea area = new JTextArea(text.toString(), 20, 40);
+	    area.setEditable(false);
+	    JOptionPane.showMessageDialog(Simulator.this, new JScrollPane(area), "Clusters", JOptionPane.PLAIN_MESSAGE);
+	}
+    }
+
+    private class StructureButtonListener implements ActionListener {
+	@Override
+	public void actionPerformed(ActionEvent arg0) {
+	    waitForCalculator();
+	    StructureFactorAnalyzer analyzer = new StructureFactorAnalyzer();
+	    analyzer.analyze(lattice);
+	    analyzer.shutdown();
+	    double[] correlation = analyzer.getCorrelation();
+	    double[] structureFactor = analyzer.getStructureFactor();
+	    DecimalFormat format = new DecimalFormat("0.000000");
+	    StringBuilder text = new StringBuilder();
+	    text.append("Domain length: ").append(format.format(analyzer.getCharacteristicLength())).append("\n\n");
+	    text.append("r / k\tC(r)\t\tS(k)\n");
+	    for (int b=0; b<correlation.length; b++) {
+		text.append(b).append('\t').append(format.format(correlation[b])).append('\t').append(format.format(structureFactor[b])).append('\n');
+	    }
+	    JTextArea area = new JTextArea(text.toString(), 20, 30);
+	    area.setEditable(false);
+	    JOptionPane.showMessageDialog(Simulator.this, new JScrollPane(area), "Structure", JOptionPane.PLAIN_MESSAGE);
+	}
+    }
+
     private class GameTheoryChangeListener implements ChangeListener {
 	@Override
 	public void stateChanged(ChangeEvent e) {
@@ -0,0 +1,61 @@
+// SplitMix64, the generator behind java.util.SplittableRandom (with its default increment). The state is a
+// single counter, which makes it the cheapest generator to seed, and it is used to seed the others.
+public class SplitMixRandom extends RandomSource {
+    private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+    private long state;
+
+    public SplitMixRandom(long seed) {
+	super(seed);
+	state = seed;
+    }
+
+    // The SplitMix64 output function, which scrambles the bits of (z).
+    public static long mix(long z) {
+	z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+	z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+	return z ^ (z >>> 31);
+    }
+
+    @Override
+    public RandomSource newInstance(long seed) {
+	return new SplitMixRandom(seed);
+    }
+
+    @Override
+    public String getType() {
+	return SPLITMIX;
+    }
+
+    @Override
+    public long nextLong() {
+	state += GAMMA;
+	return mix(state);
+    }
+
+    @Override
+    public double nextDouble() {
+	state += GAMMA;
+	return (mix(state) >>> 11) * 0x1.0p-53;
+    }
+
+    @Override
+    public void nextDoubles(double[] out, int from, int to) {
+	long s = state;
+	for (int i=from; i<to; i++) {
+	    s += GAMMA;
+	    out[i] = (mix(s) >>> 11) * 0x1.0p-53;
+	}
+	state = s;
+    }
+
+    @Override
+    public long[] getState() {
+	return new long[] {state};
+    }
+
+    @Override
+    public void setState(long[] state) {
+	this.state = state[0];
+    }
+}
@@ -0,0 +1,203 @@
+// Decides when a run's strategy proportions have stopped changing, so that it can be ended early rather than
+// run to its stop time, by the method of batch means.
+//
+// The proportions are sampled every (batchLength)/SAMPLES_PER_BATCH units of time, and the samples are averaged
+// over batches of (batchLength) units, starting at multiples of it. Neighboring samples are strongly correlated,
+// but the means of batches long enough are nearly independent, so the last (numBatches) of them show whether
+// the proportions still drift. The run is stationary once, for every strategy, those batch means differ from
+// each other by a standard deviation of at most (tolerance), and the means of their older and newer halves
+// differ by at most (tolerance) too: a run still on its way to equilibrium fails the second test even when its
+// batch means are steady, and one that fluctuates too much for the tolerance fails the first.
+//
+// The convergence time reported is when the first sample of that last window of batches was taken, when the
+// proportions had already settled; batches that no sample fell in are skipped, so the window can reach further
+// back than (numBatches) batch lengths. The state can be saved and restored with a run's checkpoint, so a
+// resumed run stops at the same step.
+public class StationarityDetector {
+    public static final double DEFAULT_TOLERANCE = 0.005;
+    public static final double DEFAULT_BATCH_LENGTH = 5;
+    public static final int DEFAULT_NUM_BATCHES = 4;
+    public static final int SAMPLES_PER_BATCH = 50;
+
+    private final int numSeries;
+    private final double tolerance;
+    private final double batchLength;
+    private final int numBatches;
+    private final double sampleInterval;
+
+    // The samples of the current batch, one statistic per strategy.
+    private final RunningStatistics[] batch;
+    private long currentBatch = Long.MIN_VALUE;
+    // The means of the last (numBatches) batches, in a ring; batchMeans[(completedBatches-1) % numBatches] is the newest.
+    private final double[][] batchMeans;
+    // The time of the first sample of each batch in batchMeans.
+    private final double[] batchStartTimes;
+    private long completedBatches;
+    // The time of the current batch's first sample.
+    private double batchStartTime = Double.NaN;
+    private double nextSampleTime = Double.NEGATIVE_INFINITY;
+    private boolean stationary;
+    private double convergenceTime = Double.NaN;
+
+    public StationarityDetector(int numStrategies) {
+	this(numStrategies, DEFAULT_TOLERANCE, DEFAULT_BATCH_LENGTH, DEFAULT_NUM_BATCHES);
+    }
+
+    public StationarityDetector(int numStrategies, double tolerance) {
+	this(numStrategies, tolerance, DEFAULT_BATCH_LENGTH, DEFAULT_NUM_BATCHES);
+    }
+
+    public StationarityDetector(int numStrategies, double tolerance, double batchLength, int numBatches) {
+	assert numBatches >= 2;
+	this.numSeries = numStrategies;
+	this.tolerance = tolerance;
+	this.batchLength = batchLength;
+	this.numBatches = numBatches;
+	sampleInterval = batchLength / SAMPLES_PER_BATCH;
+	batch = new RunningStatistics[numStrategies];
+	for (int s=0; s<numStrategies; s++) {
+	    batch[s] = new RunningStatistics();
+	}
+	batchMeans = new double[numBatches][numStrategies];
+	batchStartTimes = new double[numBatches];
+    }
+
+    // Takes a sample if one is due, and checks the window whenever a batch ends. Call it after every step; it's
+    // a comparison unless a sample is due.
+    public void update(SimulationEngine engine) {
+	double time = engine.getTime();
+	if (time < nextSampleTime || stationary)
+	    return;
+	long batchIndex = (long) Math.floor(time / batchLength);
+	if (batchIndex != currentBatch) {
+	    if (batch[0].getCount() > 0)
+		endBatch();
+	    currentBatch = batchIndex;
+	    if (stationary)
+		return;
+	}
+	if (batch[0].getCount() == 0)
+	    batchStartTime = time;
+	Lattice lattice = engine.getLattice();
+	for (int s=0; s<numSeries; s++) {
+	    batch[s].add(lattice.getProportionOf(s));
+	}
+	nextSampleTime = (Math.floor(time / sampleInterval) + 1) * sampleInterval;
+    }
+
+    private void endBatch() {
+	double[] means = batchMeans[(int) (completedBatches % numBatches)];
+	batchStartTimes[(int) (completedBatches % numBatches)] = batchStartTime;
+	for (int s=0; s<numSeries; s++) {
+	    means[s] = batch[s].getMean();
+	    batch[s].reset();
+	}
+	completedBatches++;
+	if (completedBatches < numBatches)
+	    return;
+	RunningStatistics window = new RunningStatistics();
+	for (int s=0; s<numSeries; s++) {
+	    window.reset();
+	    double older = 0, newer = 0;
+	    for (int b=0; b<numBatches; b++) {
+		// Oldest first.
+		double mean = batchMeans[(int) ((completedBatches + b) % numBatches)][s];
+		window.add(mean);
+		if (b < numBatches/2)
+		    older += mean / (numBatches/2);
+		else if (b >= numBatches - numBatches/2)
+		    newer += mean / (numBatches/2);
+	    }
+	    if (window.getStandardDeviation() > tolerance || Math.abs(newer - older) > tolerance)
+		return;
+	}
+	stationary = true;
+	// The oldest batch in the ring.
+	convergenceTime = batchStartTimes[(int) (completedBatches % numBatches)];
+    }
+
+    public boolean isStationary() {
+	return stationary;
+    }
+
+    // The time the proportions settled, or NaN if they haven't yet.
+    public double getConvergenceTime() {
+	return convergenceTime;
+    }
+
+    // The stationary proportion of (strategy): the mean of the last window of batch means.
+    public double getMean(int strategy) {
+	RunningStatistics window = getWindow(strategy);
+	return window.getMean();
+    }
+
+    // The standard error of getMean(strategy), treating the batch means as independent.
+    public double getStandardError(int strategy) {
+	RunningStatistics window = getWindow(strategy);
+	return window.getStandardError();
+    }
+
+    private RunningStatistics getWindow(int strategy) {
+	RunningStatistics window = new RunningStatistics();
+	for (long b=Math.max(0, completedBatches - numBatches); b<completedBatches; b++) {
+	    window.add(batchMeans[(int) (b % numBatches)][strategy]);
+	}
+	return window;
+    }
+
+    public double getTolerance() {
+	return tolerance;
+    }
+
+    // {currentBatch, completedBatches, batchStartTime, nextSampleTime, stationary, convergenceTime, the batch
+    // means, the batch start times, and the current batch's statistics}, doubles as their bits.
+    public long[] getState() {
+	long[] state = new long[6 + numBatches*(numSeries + 1) + 3*numSeries];
+	state[0] = currentBatch;
+	state[1] = completedBatches;
+	state[2] = Double.doubleToLongBits(batchStartTime);
+	state[3] = Double.doubleToLongBits(nextSampleTime);
+	state[4] = stationary ? 1 : 0;
+	state[5] = Double.doubleToLongBits(convergenceTime);
+	int k = 6;
+	for (int b=0; b<numBatches; b++) {
+	    for (int s=0; s<numSeries; s++) {
+		state[k++] = Double.doubleToLongBits(batchMeans[b][s]);
+	    }
+	}
+	for (int b=0; b<numBatches; b++) {
+	    state[k++] = Double.doubleToLongBits(batchStartTimes[b]);
+	}
+	for (int s=0; s<numSeries; s++) {
+	    System.arraycopy(batch[s].getState(), 0, state, k, 3);
+	    k += 3;
+	}
+	return state;
+    }
+
+    public void setState(long[] state) {
+	if (state.length != 6 + numBatches*(numSeries + 1) + 3*numSeries)
+	    throw new IllegalArgumentException("The state is for a different detector.");
+	currentBatch = state[0];
+	completedBatches = state[1];
+	batchStartTime = Double.longBitsToDouble(state[2]);
+	nextSampleTime = Double.longBitsToDouble(state[3]);
+	stationary = state[4] != 0;
+	convergenceTime = Double.longBitsToDouble(state[5]);
+	int k = 6;
+	for (int b=0; b<numBatches; b++) {
+	    for (int s=0; s<numSeries; s++) {
+		batchMeans[b][s] = Double.longBitsToDouble(state[k++]);
+	    }
+	}
+	for (int b=0; b<numBatches; b++) {
+	    batchStartTimes[b] = Double.longBitsToDouble(state[k++]);
+	}
+	for (int s=0; s<numSeries; s++) {
+	    long[] statistics = new long[3];
+	    System.arraycopy(state, k, statistics, 0, 3);
+	    batch[s].setState(statistics);
+	    k += 3;
+	}
+    }
+}
@@ -0,0 +1,389 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Measures the length scales of a lattice's configuration with fast Fourier transforms: the structure factor
+// S(k) and the two-point correlation function C(r), both averaged over directions, and a characteristic domain
+// length.
+//
+// The field transformed is the indicator of a strategy, 1 where a site plays it and 0 elsewhere, less its mean.
+// Its transform gives S(k) = |transform(k)|^2 / numSites, and transforming S(k) back gives the correlation
+// C(r) = (1/numSites) * sum over x of field(x)*field(x + r), without the O(numSites^2) sum over pairs. With
+// several strategies the fields of all of them are summed over, so C(r) is the probability that two sites r
+// apart play the same strategy, less its value for an uncorrelated lattice. The averages over directions are
+// taken in bins of width 1 around |r| (in sites, with distances measured the short way around the torus) and
+// |k| (in units of 2*pi/size), out to size/2.
+//
+// A transform in several dimensions is a transform of every line of sites along each axis in turn. The lines are
+// split into one block per worker, and each block is transformed in its own ForkJoin task, with its own
+// scratch space. A line's length is the lattice's size: a power of two is transformed directly, by the radix-2
+// Cooley-Tukey algorithm, and any other length by Bluestein's algorithm, which turns it into a convolution of
+// power-of-two length. The field, the tables and the scratch space are kept between calls, so analyze() can be
+// called every so often during a run, and allocates only when the lattice's size changes.
+public class StructureFactorAnalyzer {
+    private final ForkJoinPool pool;
+    private final int parallelism;
+
+    private int size;
+    private int dimensions;
+    private int numSites;
+    // The field, and then its transform, as real and imaginary parts; (power) sums |transform|^2 over strategies.
+    private double[] re, im;
+    private double[] power;
+    private LineTransform transform;
+    private Scratch[] scratch;
+
+    private double[] structureFactor;
+    private double[] correlation;
+    private double characteristicLength;
+
+    // With a (parallelism) of 1, everything runs on the calling thread, so a sweep can give each of its own
+    // worker threads an analyzer.
+    public StructureFactorAnalyzer() {
+	this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public StructureFactorAnalyzer(int parallelism) {
+	this.parallelism = parallelism;
+	pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    // Analyzes the fields of all the strategies together. With two strategies the two fields are opposites, so
+    // one is transformed and counted twice.
+    public void analyze(Lattice lattice) {
+	initialize(lattice);
+	int numStrategies = lattice.getNumStrategies();
+	if (numStrategies == 2) {
+	    transformField(lattice, 0);
+	    for (int i=0; i<numSites; i++) {
+		power[i] = 2 * (re[i]*re[i] + im[i]*im[i]);
+	    }
+	}
+	else {
+	    java.util.Arrays.fill(power, 0);
+	    for (int s=0; s<numStrategies; s++) {
+		transformField(lattice, s);
+		for (int i=0; i<numSites; i++) {
+		    power[i] += re[i]*re[i] + im[i]*im[i];
+		}
+	    }
+	}
+	finish();
+    }
+
+    // Analyzes the field of (strategy) alone.
+    public void analyze(Lattice lattice, int strategy) {
+	initialize(lattice);
+	transformField(lattice, strategy);
+	for (int i=0; i<numSites; i++) {
+	    power[i] = re[i]*re[i] + im[i]*im[i];
+	}
+	finish();
+    }
+
+    private void initialize(Lattice lattice) {
+	if (lattice.getSize() != size || lattice.getDimensions() != dimensions) {
+	    size = lattice.getSize();
+	    dimensions = lattice.getDimensions();
+	    numSites = lattice.getNumSites();
+	    re = new double[numSites];
+	    im = new double[numSites];
+	    power = new double[numSites];
+	    transform = new LineTransform(size);
+	    scratch = new Scratch[parallelism];
+	    for (int w=0; w<parallelism; w++) {
+		scratch[w] = new Scratch(transform);
+	    }
+	}
+    }
+
+    private void transformField(Lattice lattice, int strategy) {
+	double mean = lattice.getProportionOf(strategy);
+	for (int i=0; i<numSites; i++) {
+	    re[i] = (lattice.getStrategyAt(i) == strategy ? 1 : 0) - mean;
+	    im[i] = 0;
+	}
+	transformAll();
+    }
+
+    // Bins S(k), then transforms it back to get C(r), and bins that. S(k) is real and even, so its forward
+    // transform is (numSites) times its inverse.
+    private void finish() {
+	int bins = size/2 + 1;
+	structureFactor = new double[bins];
+	correlation = new double[bins];
+	int[] counts = new int[bins];
+	double sum = 0;
+	double weightedSum = 0;
+	RadialIndex radius = new RadialIndex();
+	for (int i=0; i<numSites; i++, radius.next()) {
+	    double s = power[i] / numSites;
+	    double magnitude = radius.get();
+	    int bin = (int) Math.round(magnitude);
+	    if (bin < bins) {
+		structureFactor[bin] += s;
+		counts[bin]++;
+	    }
+	    if (i != 0) {
+		sum += s;
+		weightedSum += magnitude * s;
+	    }
+	    re[i] = s;
+	    im[i] = 0;
+	}
+	for (int b=0; b<bins; b++) {
+	    structureFactor[b] /= counts[b];
+	}
+	// The characteristic length is 2*pi over the mean wavenumber, weighted by S(k).
+	characteristicLength = weightedSum > 0 ? size * sum / weightedSum : Double.POSITIVE_INFINITY;
+
+	transformAll();
+	java.util.Arrays.fill(counts, 0);
+	radius = new RadialIndex();
+	for (int i=0; i<numSites; i++, radius.next()) {
+	    int bin = (int) Math.round(radius.get());
+	    if (bin < bins) {
+		correlation[bin] += re[i] / numSites;
+		counts[bin]++;
+	    }
+	}
+	for (int b=0; b<bins; b++) {
+	    correlation[b] /= counts[b];
+	}
+    }
+
+    // Transforms (re, im) in place along every axis.
+    private void transformAll() {
+	int numLines = numSites / size;
+	int stride = 1;
+	for (int d=0; d<dimensions; d++) {
+	    if (pool != null)
+		pool.invoke(new LineTask(0, parallelism, numLines, stride));
+	    else
+		transformLines(0, numLines, stride, scratch[0]);
+	    stride *= size;
+	}
+    }
+
+    // Transforms lines (from) through (to)-1 along the axis whose sites are (stride) apart. Line l starts at the
+    // site with the coordinates of l below that axis and above it, and 0 along it.
+    private void transformLines(int from, int to, int stride, Scratch lineScratch) {
+	for (int line=from; line<to; line++) {
+	    int start = (line / stride) * stride * size + line % stride;
+	    transform.transform(re, im, start, stride, lineScratch);
+	}
+    }
+
+    // Block (from) through (to)-1 of (blocks) equal blocks of lines, each with its own scratch space.
+    private class LineTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private final int from, to, numLines, stride;
+
+	private LineTask(int from, int to, int numLines, int stride) {
+	    this.from = from;
+	    this.to = to;
+	    this.numLines = numLines;
+	    this.stride = stride;
+	}
+
+	@Override
+	protected void compute() {
+	    if (to - from == 1) {
+		transformLines((int) ((long) from * numLines / parallelism), (int) ((long) to * numLines / parallelism), stride, scratch[from]);
+		return;
+	    }
+	    int middle = (from + to) >>> 1;
+	    invokeAll(new LineTask(from, middle, numLines, stride), new LineTask(middle, to, numLines, stride));
+	}
+    }
+
+    // Walks through the sites in order, giving the length of each one's displacement from site 0, measured the
+    // short way around the torus; the same numbers are the wavenumbers of the transform, in units of 2*pi/size.
+    private class RadialIndex {
+	private final int[] coordinates = new int[dimensions];
+	private double squared;
+
+	private void next() {
+	    for (int d=0; d<dimensions && ++coordinates[d] == size; d++) {
+		coordinates[d] = 0;
+	    }
+	    squared = 0;
+	    for (int d=0; d<dimensions; d++) {
+		int c = coordinates[d] <= size/2 ? coordinates[d] : coordinates[d] - size;
+		squared += (double) c*c;
+	    }
+	}
+
+	private double get() {
+	    return Math.sqrt(squared);
+	}
+    }
+
+    // The structure factor S(k) averaged over directions, for |k| = 0 through size/2, in units of 2*pi/size.
+    public double[] getStructureFactor() {
+	return structureFactor;
+    }
+
+    // The correlation C(r) averaged over directions, for r = 0 through size/2 sites. C(0) is the variance of the
+    // field(s), e.g. p*(1-p) for one strategy of proportion p.
+    public double[] getCorrelation() {
+	return correlation;
+    }
+
+    // The domain length, in sites: 2*pi over the mean of |k| weighted by S(k). It's infinite on a uniform lattice.
+    public double getCharacteristicLength() {
+	return characteristicLength;
+    }
+
+    public void shutdown() {
+	if (pool != null)
+	    pool.shutdown();
+    }
+
+    // The scratch space of one worker: a line, and Bluestein's padded sequence.
+    private static class Scratch {
+	private final double[] lineRe, lineIm;
+	private final double[] paddedRe, paddedIm;
+
+	private Scratch(LineTransform transform) {
+	    lineRe = new double[transform.n];
+	    lineIm = new double[transform.n];
+	    paddedRe = new double[transform.m];
+	    paddedIm = new double[transform.m];
+	}
+    }
+
+    // A discrete Fourier transform of length (n), X(k) = sum over j of x(j) * exp(-2*pi*i*j*k/n).
+    //
+    // A power of two is transformed in place by iterative radix-2 Cooley-Tukey: the input is put in bit-reversed
+    // order, and then butterflies of width 2, 4, ..., n combine the halves. Any other length uses Bluestein's
+    // identity j*k = (j^2 + k^2 - (k-j)^2)/2, which makes the transform a convolution with the chirp
+    // exp(i*pi*j^2/n): the input times the conjugate chirp is zero-padded to a power of two (m) >= 2n - 1 and
+    // convolved with the chirp by two radix-2 transforms of length (m), whose transform is computed once.
+    private static class LineTransform {
+	private final int n;
+	private final int m;
+	private final double[] cos, sin;
+	private final int[] reversed;
+	// The chirp exp(-i*pi*j^2/n), and the transform of its conjugate, wrapped around to length (m).
+	private final double[] chirpRe, chirpIm;
+	private final double[] kernelRe, kernelIm;
+
+	private LineTransform(int n) {
+	    this.n = n;
+	    m = Integer.bitCount(n) == 1 ? n : Integer.highestOneBit(2*n - 1) << 1;
+	    cos = new double[m/2];
+	    sin = new double[m/2];
+	    for (int j=0; j<m/2; j++) {
+		cos[j] = Math.cos(2*Math.PI*j / m);
+		sin[j] = -Math.sin(2*Math.PI*j / m);
+	    }
+	    reversed = new int[m];
+	    int bits = Integer.numberOfTrailingZeros(m);
+	    for (int j=0; j<m; j++) {
+		reversed[j] = bits == 0 ? 0 : Integer.reverse(j) >>> (32 - bits);
+	    }
+	    if (m == n) {
+		chirpRe = chirpIm = kernelRe = kernelIm = null;
+		return;
+	    }
+	    chirpRe = new double[n];
+	    chirpIm = new double[n];
+	    for (int j=0; j<n; j++) {
+		// j^2 is reduced mod 2n first, so the angle stays accurate for long lines.
+		double angle = Math.PI * ((long) j*j % (2L*n)) / n;
+		chirpRe[j] = Math.cos(angle);
+		chirpIm[j] = -Math.sin(angle);
+	    }
+	    kernelRe = new double[m];
+	    kernelIm = new double[m];
+	    for (int j=0; j<n; j++) {
+		kernelRe[j] = chirpRe[j];
+		kernelIm[j] = -chirpIm[j];
+		if (j > 0) {
+		    kernelRe[m-j] = chirpRe[j];
+		    kernelIm[m-j] = -chirpIm[j];
+		}
+	    }
+	    radix2(kernelRe, kernelIm);
+	}
+
+	// Transforms the (n) values re[start + j*stride], im[start + j*stride] in place.
+	private void transform(double[] re, double[] im, int start, int stride, Scratch scratch) {
+	    if (m == n) {
+		double[] lineRe = scratch.lineRe;
+		double[] lineIm = scratch.lineIm;
+		for (int j=0; j<n; j++) {
+		    lineRe[j] = re[start + j*stride];
+		    lineIm[j] = im[start + j*stride];
+		}
+		radix2(lineRe, lineIm);
+		for (int j=0; j<n; j++) {
+		    re[start + j*stride] = lineRe[j];
+		    im[start + j*stride] = lineIm[j];
+		}
+		return;
+	    }
+
+	    double[] aRe = scratch.paddedRe;
+	    double[] aIm = scratch.paddedIm;
+	    for (int j=0; j<n; j++) {
+		double xRe = re[start + j*stride];
+		double xIm = im[start + j*stride];
+		aRe[j] = xRe*chirpRe[j] - xIm*chirpIm[j];
+		aIm[j] = xRe*chirpIm[j] + xIm*chirpRe[j];
+	    }
+	    for (int j=n; j<m; j++) {
+		aRe[j] = 0;
+		aIm[j] = 0;
+	    }
+	    radix2(aRe, aIm);
+	    // Multiply by the kernel's transform, and transform back: the inverse is the conjugate of the forward
+	    // transform of the conjugate, divided by (m).
+	    for (int j=0; j<m; j++) {
+		double pRe = aRe[j]*kernelRe[j] - aIm[j]*kernelIm[j];
+		double pIm = aRe[j]*kernelIm[j] + aIm[j]*kernelRe[j];
+		aRe[j] = pRe;
+		aIm[j] = -pIm;
+	    }
+	    radix2(aRe, aIm);
+	    for (int k=0; k<n; k++) {
+		double cRe = aRe[k] / m;
+		double cIm = -aIm[k] / m;
+		re[start + k*stride] = cRe*chirpRe[k] - cIm*chirpIm[k];
+		im[start + k*stride] = cRe*chirpIm[k] + cIm*chirpRe[k];
+	    }
+	}
+
+	// The in-place radix-2 transform of (m) values.
+	private void radix2(double[] re, double[] im) {
+	    for (int j=0; j<m; j++) {
+		int r = reversed[j];
+		if (r > j) {
+		    double t = re[j];
+		    re[j] = re[r];
+		    re[r] = t;
+		    t = im[j];
+		    im[j] = im[r];
+		    im[r] = t;
+		}
+	    }
+	    for (int half=1; half<m; half<<=1) {
+		int step = m / (2*half);
+		for (int block=0; block<m; block+=2*half) {
+		    for (int j=0; j<half; j++) {
+			double wRe = cos[j*step];
+			double wIm = sin[j*step];
+			int a = block + j;
+			int b = a + half;
+			double tRe = re[b]*wRe - im[b]*wIm;
+			double tIm = re[b]*wIm + im[b]*wRe;
+			re[b] = re[a] - tRe;
+			im[b] = im[a] - tIm;
+			re[a] += tRe;
+			im[a] += tIm;
+		    }
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,56 @@
+// An update method: what happens when a site is chosen for updating. Each of the eight methods is its own
+// subclass, so a loop that applies one rule (run(), or an engine's step loop) sees a single receiver type, and
+// the JIT can inline update() into it instead of going through a switch on every step. New rules can be added by
+// subclassing, without touching Lattice; install one with Lattice.setUpdateRule().
+//
+// A rule belongs to one lattice and may keep scratch buffers sized for it, so it is not shared between lattices,
+// or between a lattice and its views; createFor() makes the copy each one needs.
+public abstract class UpdateRule {
+    protected final Lattice lattice;
+
+    protected UpdateRule(Lattice lattice) {
+	this.lattice = lattice;
+    }
+
+    // Returns the rule for update method (updateMethod), from 0 to 7, applied to (lattice).
+    public static UpdateRule create(Lattice lattice, int updateMethod) {
+	switch (updateMethod) {
+	case 0:
+	    return new BirthDeathRule(lattice);
+	case 1:
+	    return new LinearBirthDeathRule(lattice);
+	case 2:
+	    return new DeathBirthRule(lattice);
+	case 3:
+	    return new ImitationRule(lattice);
+	case 4:
+	    return new LeastFitBirthDeathRule(lattice);
+	case 5:
+	    return new FittestDeathBirthRule(lattice);
+	case 6:
+	    return new ImitateFittestRule(lattice);
+	case 7:
+	    return new BestResponseRule(lattice);
+	}
+	System.err.println("Update method must be between 0 and 7. EXITING.");
+	System.exit(1);
+	return null;
+    }
+
+    // Applies the rule to (node).
+    public abstract void update(int node);
+
+    // Returns a new instance of this rule applied to (lattice).
+    public abstract UpdateRule createFor(Lattice lattice);
+
+    // Applies the rule to (count) sites chosen uniformly at random, one after another.
+    public void run(long count) {
+	for (long i=0; i<count; i++) {
+	    update(lattice.chooseSiteAtRandom());
+	}
+    }
+
+    public Lattice getLattice() {
+	return lattice;
+    }
+}
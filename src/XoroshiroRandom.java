@@ -0,0 +1,87 @@
+// xoroshiro128++ (Blackman and Vigna): 128 bits of state, a period of 2^128 - 1, and only adds, xors, shifts
+// and rotations per draw. This is the default generator of a Lattice.
+public class XoroshiroRandom extends RandomSource {
+    private long s0, s1;
+
+    // The two state words are expanded from (seed) with SplitMix64, as the authors recommend, so that
+    // nearby seeds give unrelated streams.
+    public XoroshiroRandom(long seed) {
+	super(seed);
+	SplitMixRandom seeder = new SplitMixRandom(seed);
+	s0 = seeder.nextLong();
+	s1 = seeder.nextLong();
+	// The all-zero state is the one state the generator never leaves.
+	if (s0 == 0 && s1 == 0)
+	    s1 = 1;
+    }
+
+    @Override
+    public RandomSource newInstance(long seed) {
+	return new XoroshiroRandom(seed);
+    }
+
+    @Override
+    public String getType() {
+	return XOROSHIRO;
+    }
+
+    @Override
+    public long nextLong() {
+	long a = s0;
+	long b = s1;
+	long result = Long.rotateLeft(a + b, 17) + a;
+	b ^= a;
+	s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+	s1 = Long.rotateLeft(b, 28);
+	return result;
+    }
+
+    // The bulk versions keep the state in locals for the whole loop, rather than loading and storing
+    // the fields once per draw.
+    @Override
+    public void nextInts(int[] out, int from, int to, int bound) {
+	assert bound > 0;
+	long a = s0;
+	long b = s1;
+	long threshold = (0x100000000L - bound) % bound;
+	for (int i=from; i<to; i++) {
+	    long m;
+	    do {
+		long result = Long.rotateLeft(a + b, 17) + a;
+		b ^= a;
+		a = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+		b = Long.rotateLeft(b, 28);
+		m = (result >>> 32) * bound;
+	    } while ((m & 0xFFFFFFFFL) < threshold);
+	    out[i] = (int) (m >>> 32);
+	}
+	s0 = a;
+	s1 = b;
+    }
+
+    @Override
+    public void nextDoubles(double[] out, int from, int to) {
+	long a = s0;
+	long b = s1;
+	for (int i=from; i<to; i++) {
+	    long result = Long.rotateLeft(a + b, 17) + a;
+	    b ^= a;
+	    a = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+	    b = Long.rotateLeft(b, 28);
+	    out[i] = (result >>> 11) * 0x1.0p-53;
+	}
+	s0 = a;
+	s1 = b;
+    }
+
+    @Override
+    public long[] getState() {
+	return new long[] {s0, s1};
+    }
+
+    @Override
+    public void setState(long[] state) {
+	s0 = state[0];
+	s1 = state[1];
+    }
+}